@@ -0,0 +1,67 @@
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+
+/**
+ * CollectionStats holds the collection statistics that the retrieval
+ * models use, computed once when the index is opened.  Reading them
+ * from the IndexReader aggregates over every index segment, which is
+ * too slow to do per document.
+ */
+public class CollectionStats {
+
+  /**
+   * The statistics of one field.
+   */
+  public static class FieldStats {
+
+    // The number of documents that have the field.
+    public final int docCount;
+
+    // The total number of term occurrences in the field.
+    public final long sumTotalTermFreq;
+
+    // The average field length, sumTotalTermFreq / docCount.
+    public final double avgLength;
+
+    private FieldStats(int docCount, long sumTotalTermFreq) {
+      this.docCount = docCount;
+      this.sumTotalTermFreq = sumTotalTermFreq;
+      this.avgLength = (docCount == 0) ? 0.0 :
+        (double) sumTotalTermFreq / (double) docCount;
+    }
+  }
+
+  // The statistics of a field that isn't in the index.
+  private static final FieldStats NO_FIELD = new FieldStats(0, 0);
+
+  // The number of documents in the index, not counting deletions.
+  public final int numDocs;
+
+  private Map<String, FieldStats> fields = new HashMap<String, FieldStats>();
+
+  /**
+   * @param reader IndexReader object created in {@link QryEval}.
+   */
+  public CollectionStats(IndexReader reader) throws IOException {
+    this.numDocs = reader.numDocs();
+
+    for (String field : MultiFields.getIndexedFields(reader))
+      this.fields.put(field, new FieldStats(reader.getDocCount(field),
+                                            reader.getSumTotalTermFreq(field)));
+  }
+
+  /**
+   * Returns the statistics of a field.  Callers in scoring loops should
+   * get them once, outside the loop.  A field that isn't in the index
+   * has all-zero statistics, as the IndexReader reports for it.
+   *
+   * @param fieldname Name of the field.
+   */
+  public FieldStats field(String fieldname) {
+    FieldStats stats = this.fields.get(fieldname);
+    return (stats != null) ? stats : NO_FIELD;
+  }
+}
@@ -0,0 +1,306 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import org.apache.lucene.index.*;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * DocIdMap maps internal document ids to external document ids and back
+ * without reading stored fields or running queries.
+ *
+ * The map is built once from the terms of the externalId field.  It is
+ * kept in a single buffer with this layout (all ints big-endian):
+ *
+ *   header:   MAGIC, index version (long), maxDoc, number of ids
+ *   offsets:  int[maxDoc+1]; the external id of internal id i is the
+ *             UTF-8 bytes names[offsets[i]] to names[offsets[i+1]-1]
+ *   sorted:   int[number of ids]; internal ids, ordered by external id
+ *   names:    the UTF-8 external ids, in internal id order
+ *
+ * If a file path is given, the buffer is written there and memory-mapped
+ * by later runs, as long as the index has not changed since.  The file
+ * is written under a temporary name and renamed into place, and it is
+ * rebuilt if its length doesn't match its header, so a run never maps a
+ * partly written file.
+ */
+public class DocIdMap {
+
+  private static final int MAGIC = 0x44494d31; // "DIM1"
+  private static final int HEADER_SIZE = 4 + 8 + 4 + 4;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private ByteBuffer buffer;
+  private int maxDoc;
+  private int numIds;
+  private int offsetsStart;
+  private int sortedStart;
+  private int namesStart;
+
+  // ranks[docid] is the position of the document's external id in
+  // sorted order, or Integer.MAX_VALUE if it doesn't have one
+  private int[] ranks;
+
+  /**
+   * Build the map in memory.
+   *
+   * @param reader IndexReader object created in {@link QryEval}.
+   */
+  public DocIdMap(IndexReader reader) throws IOException {
+    this(reader, null);
+  }
+
+  /**
+   * Map the sidecar file if it matches the index, otherwise build the
+   * map and write the file.
+   *
+   * @param reader IndexReader object created in {@link QryEval}.
+   * @param path The sidecar file, or null to keep the map in memory only.
+   */
+  public DocIdMap(IndexReader reader, String path) throws IOException {
+
+    long version = (reader instanceof DirectoryReader) ?
+      ((DirectoryReader) reader).getVersion() : -1;
+
+    if (path != null && version != -1)
+      this.buffer = map(new File(path), version, reader.maxDoc());
+
+    if (this.buffer == null) {
+      this.buffer = build(reader, version);
+
+      if (path != null && version != -1)
+        write(new File(path), this.buffer.duplicate());
+    }
+
+    this.maxDoc = this.buffer.getInt(12);
+    this.numIds = this.buffer.getInt(16);
+    this.offsetsStart = HEADER_SIZE;
+    this.sortedStart = this.offsetsStart + 4 * (this.maxDoc + 1);
+    this.namesStart = this.sortedStart + 4 * this.numIds;
+
+    this.ranks = new int[this.maxDoc];
+    Arrays.fill(this.ranks, Integer.MAX_VALUE);
+    for (int i = 0; i < this.numIds; i++)
+      this.ranks[this.buffer.getInt(this.sortedStart + 4 * i)] = i;
+  }
+
+  /**
+   * Memory-map the sidecar file.
+   *
+   * @return The buffer, or null if the file is missing, stale or not
+   * the length that its header and offsets say.
+   */
+  private static ByteBuffer map(File file, long version, int maxDoc)
+    throws IOException {
+
+    if (!file.exists())
+      return null;
+
+    MappedByteBuffer buffer;
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                                    raf.length());
+    } finally {
+      raf.close();
+    }
+
+    if (buffer.capacity() < HEADER_SIZE ||
+        buffer.getInt(0) != MAGIC ||
+        buffer.getLong(4) != version ||
+        buffer.getInt(12) != maxDoc)
+      return null;
+
+    //  The names end where the last offset says.
+
+    long namesStart = HEADER_SIZE + 4L * (maxDoc + 1) +
+      4L * buffer.getInt(16);
+
+    if (buffer.getInt(16) < 0 || buffer.capacity() < namesStart ||
+        buffer.capacity() !=
+        namesStart + buffer.getInt(HEADER_SIZE + 4 * maxDoc))
+      return null;
+
+    return buffer;
+  }
+
+  /**
+   * Write the map to a temporary file, and rename it to the sidecar
+   * file.
+   */
+  private static void write(File file, ByteBuffer buffer) throws IOException {
+
+    File dir = file.getAbsoluteFile().getParentFile();
+    dir.mkdirs();
+
+    File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+    try {
+      FileOutputStream out = new FileOutputStream(tmp);
+      try {
+        while (buffer.hasRemaining())
+          out.getChannel().write(buffer);
+      } finally {
+        out.close();
+      }
+      Files.move(tmp.toPath(), file.toPath(),
+                 StandardCopyOption.REPLACE_EXISTING,
+                 StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      tmp.delete();
+    }
+  }
+
+  /**
+   * Read the externalId terms and lay them out in a buffer.
+   */
+  private static ByteBuffer build(IndexReader reader, long version)
+    throws IOException {
+
+    int maxDoc = reader.maxDoc();
+    byte[][] names = new byte[maxDoc][];
+    int[] sorted = new int[maxDoc];
+    int numIds = 0;
+    int namesLength = 0;
+
+    //  Terms are visited in byte order, so the docids are collected in
+    //  external id order.
+
+    Terms terms = MultiFields.getTerms(reader, "externalId");
+    if (terms != null) {
+      TermsEnum termsEnum = terms.iterator(null);
+      DocsEnum docsEnum = null;
+      BytesRef term;
+
+      while ((term = termsEnum.next()) != null) {
+        docsEnum = termsEnum.docs(MultiFields.getLiveDocs(reader), docsEnum,
+                                  DocsEnum.FLAG_NONE);
+        int docid = docsEnum.nextDoc();
+
+        if (docid == DocsEnum.NO_MORE_DOCS || names[docid] != null)
+          continue;
+
+        names[docid] = new byte[term.length];
+        System.arraycopy(term.bytes, term.offset, names[docid], 0,
+                         term.length);
+        sorted[numIds++] = docid;
+        namesLength += term.length;
+      }
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 4 * (maxDoc + 1) +
+                                            4 * numIds + namesLength);
+    buffer.putInt(MAGIC).putLong(version).putInt(maxDoc).putInt(numIds);
+
+    int offset = 0;
+    for (int i = 0; i < maxDoc; i++) {
+      buffer.putInt(offset);
+      if (names[i] != null)
+        offset += names[i].length;
+    }
+    buffer.putInt(offset);
+
+    for (int i = 0; i < numIds; i++)
+      buffer.putInt(sorted[i]);
+
+    for (int i = 0; i < maxDoc; i++)
+      if (names[i] != null)
+        buffer.put(names[i]);
+
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Returns the external id of a document.
+   *
+   * @param docid The internal docid in the lucene index.
+   * @return The external id, or null if the document doesn't have one.
+   */
+  public String getExternalDocid(int docid) {
+
+    if (docid < 0 || docid >= this.maxDoc)
+      return null;
+
+    int start = this.buffer.getInt(this.offsetsStart + 4 * docid);
+    int end = this.buffer.getInt(this.offsetsStart + 4 * (docid + 1));
+
+    if (start == end)
+      return null;
+
+    byte[] bytes = new byte[end - start];
+    for (int i = 0; i < bytes.length; i++)
+      bytes[i] = this.buffer.get(this.namesStart + start + i);
+
+    return new String(bytes, UTF8);
+  }
+
+  /**
+   * Returns the rank of a document's external id among all of the
+   * external ids, in byte order.  Comparing the ranks of two documents
+   * compares their external ids without reading them.
+   *
+   * @param docid The internal docid in the lucene index.
+   * @return The rank, or Integer.MAX_VALUE if the document doesn't have
+   * an external id.
+   */
+  public int getExternalIdRank(int docid) {
+
+    if (docid < 0 || docid >= this.maxDoc)
+      return Integer.MAX_VALUE;
+
+    return this.ranks[docid];
+  }
+
+  /**
+   * Returns the internal id of a document, by binary search over the
+   * external ids.
+   *
+   * @param externalId The external id of the document.
+   * @return The internal docid, or -1 if the external id isn't found.
+   */
+  public int getInternalDocid(String externalId) {
+
+    byte[] key = externalId.getBytes(UTF8);
+    int lo = 0;
+    int hi = this.numIds - 1;
+
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      int docid = this.buffer.getInt(this.sortedStart + 4 * mid);
+      int c = compareName(docid, key);
+
+      if (c < 0)
+        lo = mid + 1;
+      else if (c > 0)
+        hi = mid - 1;
+      else
+        return docid;
+    }
+
+    return -1;
+  }
+
+  /**
+   * Compare the external id of a document to a key, as unsigned bytes,
+   * which is the order that the terms were sorted in.
+   */
+  private int compareName(int docid, byte[] key) {
+
+    int start = this.buffer.getInt(this.offsetsStart + 4 * docid);
+    int end = this.buffer.getInt(this.offsetsStart + 4 * (docid + 1));
+    int length = Math.min(end - start, key.length);
+
+    for (int i = 0; i < length; i++) {
+      int a = this.buffer.get(this.namesStart + start + i) & 0xff;
+      int b = key[i] & 0xff;
+      if (a != b)
+        return a - b;
+    }
+
+    return (end - start) - key.length;
+  }
+}
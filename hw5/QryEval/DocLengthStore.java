@@ -2,32 +2,162 @@
  *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
  */
 
-import java.io.IOException;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.HashMap;
 import java.util.Map;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.NumericDocValues;
 import org.apache.lucene.index.MultiDocValues;
 import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.store.FSDirectory;
 
 /**
  * DocLengthStore is used to access the document lengths of indexed docs.
+ *
+ * The lengths are read once from the norms, which DocLenStoreSimilarity
+ * sets to the exact field length, and kept in one int array per field.
+ * If a directory is given, each field's array is written to a file
+ * there (field.len) and memory-mapped by later runs, as long as the
+ * index has not changed since.  A file is written under a temporary
+ * name and renamed into place, so a run never maps a partly written
+ * file.  The files can also be built ahead of time with:
+ *
+ *   java DocLengthStore indexPath lengthDirectory
  */
 public class DocLengthStore  {
 
+  private static final int MAGIC = 0x444c4e31; // "DLN1"
+  private static final int HEADER_SIZE = 4 + 8 + 4;
+
   private IndexReader reader;
-  private  Map<String, NumericDocValues> values = new HashMap<String, NumericDocValues>();
+  private  Map<String, IntBuffer> values = new HashMap<String, IntBuffer>();
+
+  // The lengths of a field that isn't in the index, all zero.
+  private IntBuffer noField;
 
   /**
    * @param reader IndexReader object created in {@link QryEval}.
    */
   public DocLengthStore(IndexReader reader) throws IOException {
+    this(reader, null);
+  }
+
+  /**
+   * @param reader IndexReader object created in {@link QryEval}.
+   * @param path The directory of document length files, or null to keep
+   * the lengths on the heap only.
+   */
+  public DocLengthStore(IndexReader reader, String path) throws IOException {
     this.reader = reader;
+
+    long version = (reader instanceof DirectoryReader) ?
+      ((DirectoryReader) reader).getVersion() : -1;
+
     for (String field : MultiFields.getIndexedFields(reader)) {
-      this.values.put(field, MultiDocValues.getNormValues(reader, field));      
+      NumericDocValues norms = MultiDocValues.getNormValues(reader, field);
+
+      if (norms == null)
+        continue;
+
+      if (path == null || version == -1) {
+        this.values.put(field, IntBuffer.wrap(readNorms(norms)));
+        continue;
+      }
+
+      File file = new File(path, field + ".len");
+      IntBuffer lengths = map(file, version);
+
+      if (lengths == null) {
+        write(file, version, readNorms(norms));
+        lengths = map(file, version);
+      }
+
+      this.values.put(field, lengths);
+    }
+  }
+
+  /**
+   * Copy the norms of a field into an array.
+   */
+  private int[] readNorms(NumericDocValues norms) {
+    int[] lengths = new int[this.reader.maxDoc()];
+
+    for (int docid = 0; docid < lengths.length; docid++)
+      lengths[docid] = (int) norms.get(docid);
+
+    return lengths;
+  }
+
+  /**
+   * Write the lengths of a field to a temporary file, and rename it to
+   * the field's file.
+   */
+  private void write(File file, long version, int[] lengths)
+    throws IOException {
+
+    File dir = file.getAbsoluteFile().getParentFile();
+    dir.mkdirs();
+
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 4 * lengths.length);
+    buffer.putInt(MAGIC).putLong(version).putInt(lengths.length);
+    buffer.asIntBuffer().put(lengths);
+    buffer.rewind();
+
+    File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+    try {
+      FileOutputStream out = new FileOutputStream(tmp);
+      try {
+        while (buffer.hasRemaining())
+          out.getChannel().write(buffer);
+      } finally {
+        out.close();
+      }
+      Files.move(tmp.toPath(), file.toPath(),
+                 StandardCopyOption.REPLACE_EXISTING,
+                 StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      tmp.delete();
     }
   }
 
+  /**
+   * Memory-map the lengths of a field.
+   *
+   * @return The lengths, or null if the file is missing or stale.
+   */
+  private IntBuffer map(File file, long version) throws IOException {
+
+    if (!file.exists())
+      return null;
+
+    MappedByteBuffer buffer;
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                                    raf.length());
+    } finally {
+      raf.close();
+    }
+
+    int maxDoc = this.reader.maxDoc();
+
+    if (buffer.capacity() != HEADER_SIZE + 4L * maxDoc ||
+        buffer.getInt(0) != MAGIC ||
+        buffer.getLong(4) != version ||
+        buffer.getInt(12) != maxDoc)
+      return null;
+
+    buffer.position(HEADER_SIZE);
+    return buffer.slice().asIntBuffer();
+  }
+
   /**
    * Returns the length of the specified field in the specified document.
    *
@@ -36,6 +166,43 @@ public class DocLengthStore  {
    * @param docid The internal docid in the lucene index.
    */
   public long getDocLength(String fieldname, int docid) throws IOException {
-    return values.get(fieldname).get(docid);
+    return getDocLengths(fieldname).get(docid);
+  }
+
+  /**
+   * Returns the lengths of the specified field, indexed by internal docid.
+   * Callers that look up many lengths in one field should get the buffer
+   * once, rather than calling getDocLength for each document.  A field
+   * that isn't in the index has a length of 0 in every document.
+   *
+   * @param fieldname Name of field to access lengths.
+   */
+  public IntBuffer getDocLengths(String fieldname) {
+    IntBuffer lengths = values.get(fieldname);
+
+    if (lengths == null) {
+      if (this.noField == null)
+        this.noField = IntBuffer.wrap(new int[this.reader.maxDoc()]);
+      lengths = this.noField;
+    }
+
+    return lengths;
+  }
+
+  /**
+   * Build the document length files for an index.
+   *
+   * @param args The index path and the directory to write the files to.
+   */
+  public static void main(String[] args) throws IOException {
+
+    if (args.length < 2) {
+      System.err.println("Usage:  java DocLengthStore indexPath lengthDirectory");
+      System.exit(1);
+    }
+
+    IndexReader reader = DirectoryReader.open(FSDirectory.open(new File(args[0])));
+    new DocLengthStore(reader, args[1]);
+    reader.close();
   }
 }
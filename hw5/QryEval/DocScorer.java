@@ -0,0 +1,262 @@
+/**
+ *  A DocScorer evaluates a score-list query operator one document at
+ *  a time.  Instead of evaluating each argument into a complete
+ *  ScoreList and then merging the lists, a tree of DocScorers mirrors
+ *  the query tree, the leaves read postings through PostingsCursors,
+ *  and the tree moves through the documents in docid order, computing
+ *  each document's score in one pass.
+ *
+ *  Each query operator creates its own DocScorer (see
+ *  QryopSl.docScorer), so the scoring rules stay with the operator.
+ *  This class provides the shared iteration logic: Union for operators
+ *  that match a document if any argument does, and Intersection for
+ *  operators that match a document only if every argument does.
+ */
+
+import java.io.*;
+
+public abstract class DocScorer {
+
+	public static final int NO_MORE_DOCS = PostingsCursor.NO_MORE_DOCS;
+
+	/**
+	 *  The document that the scorer is on.  -1 before the first call
+	 *  to advance, and NO_MORE_DOCS after the last document.
+	 *  @return The internal document id.
+	 */
+	public abstract int docID();
+
+	/**
+	 *  Move to the first matching document whose id is at least target.
+	 *  Does nothing if the scorer is already there.
+	 *  @param target The document id to move to.
+	 *  @return The new document id, or NO_MORE_DOCS.
+	 *  @throws IOException
+	 */
+	public abstract int advance(int target) throws IOException;
+
+	/**
+	 *  The score of the current document.  Only valid when docid
+	 *  equals docID().
+	 *  @param docid The internal id of the current document.
+	 *  @return The document's score.
+	 *  @throws IOException
+	 */
+	public abstract double score(int docid) throws IOException;
+
+	/**
+	 *  The score of a document that this scorer does not match.
+	 *  @param docid The internal id of the document.
+	 *  @return The default score.
+	 *  @throws IOException
+	 */
+	public abstract double defaultScore(int docid) throws IOException;
+
+	/**
+	 *  An upper bound on the score of any document that this scorer
+	 *  matches.  Top-k evaluation uses it to skip documents that can't
+	 *  make the top k.
+	 *  @return The upper bound, or infinity if there is no useful bound.
+	 */
+	public double maxScore() {
+		return Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 *  The score of a document, whether or not this scorer matches it.
+	 *  The scorer must already be advanced to docid or beyond.
+	 *  @param docid The internal id of the document.
+	 *  @return The score or the default score.
+	 *  @throws IOException
+	 */
+	public double scoreOrDefault(int docid) throws IOException {
+		if (docID() == docid)
+			return score(docid);
+		return defaultScore(docid);
+	}
+
+	/**
+	 *  Evaluate a query operator document-at-a-time.
+	 *  @param q The query operator.
+	 *  @param r A retrieval model that controls how the operator behaves.
+	 *  @return The result of evaluating the query, in docid order.
+	 *  @throws IOException
+	 */
+	public static QryResult evaluate(QryopSl q, RetrievalModel r)
+			throws IOException {
+
+		DocScorer scorer = q.docScorer(r);
+		QryResult result = new QryResult();
+
+		for (int docid = scorer.advance(0); docid != NO_MORE_DOCS; docid = scorer
+				.advance(docid + 1))
+			result.docScores.add(docid, scorer.score(docid));
+
+		return result;
+	}
+
+	/**
+	 *  A scorer that walks a score list that was already evaluated.
+	 *  It lets operators that have no document-at-a-time implementation
+	 *  take part in a DocScorer tree.
+	 */
+	public static class ScoreListScorer extends DocScorer {
+
+		private QryopSl q;
+		private RetrievalModel r;
+		private ScoreList scoreList;
+		private int nextDoc = -1;
+
+		public ScoreListScorer(QryopSl q, RetrievalModel r) throws IOException {
+			this.q = q;
+			this.r = r;
+			this.scoreList = QryEval.evaluateArg(q, r).docScores;
+		}
+
+		public int docID() {
+			if (this.nextDoc < 0)
+				return -1;
+			else if (this.nextDoc >= this.scoreList.scores.size())
+				return NO_MORE_DOCS;
+			return this.scoreList.getDocid(this.nextDoc);
+		}
+
+		public int advance(int target) {
+			while (docID() < target)
+				this.nextDoc++;
+			return docID();
+		}
+
+		public double score(int docid) {
+			return this.scoreList.getDocidScore(this.nextDoc);
+		}
+
+		public double defaultScore(int docid) throws IOException {
+			return this.q.getDefaultScore(this.r, docid);
+		}
+	}
+
+	/**
+	 *  A scorer that matches the documents that any of its argument
+	 *  scorers match.  Subclasses combine the argument scores.
+	 */
+	public abstract static class Union extends DocScorer {
+
+		protected DocScorer[] scorers;
+		private int docid = -1;
+
+		private IndriDefaultPlan plan;
+		private double[] defaults;
+		private int defaultsDocid = -1;
+
+		public Union(DocScorer[] scorers) {
+			this.scorers = scorers;
+		}
+
+		/**
+		 *  @param scorers The argument scorers.
+		 *  @param plan Computes the default scores of the arguments, for
+		 *  argScoreOrDefault.
+		 */
+		public Union(DocScorer[] scorers, IndriDefaultPlan plan) {
+			this.scorers = scorers;
+			this.plan = plan;
+			this.defaults = new double[scorers.length];
+		}
+
+		/**
+		 *  The score of argument i for a document, or its default score
+		 *  if it doesn't match the document.  The default scores of all
+		 *  the arguments are computed together, at most once per
+		 *  document.
+		 */
+		protected double argScoreOrDefault(int i, int docid)
+				throws IOException {
+			if (this.scorers[i].docID() == docid)
+				return this.scorers[i].score(docid);
+
+			if (this.defaultsDocid != docid) {
+				this.plan.argDefaults(docid, this.defaults);
+				this.defaultsDocid = docid;
+			}
+			return this.defaults[i];
+		}
+
+		public int docID() {
+			return this.docid;
+		}
+
+		public int advance(int target) throws IOException {
+
+			if (this.docid >= target)
+				return this.docid;
+
+			int minDocid = NO_MORE_DOCS;
+
+			for (int i = 0; i < this.scorers.length; i++) {
+				int d = this.scorers[i].docID();
+				if (d < target)
+					d = this.scorers[i].advance(target);
+				if (d < minDocid)
+					minDocid = d;
+			}
+
+			this.docid = minDocid;
+			return this.docid;
+		}
+	}
+
+	/**
+	 *  A scorer that matches the documents that all of its argument
+	 *  scorers match.  Subclasses combine the argument scores.
+	 */
+	public abstract static class Intersection extends DocScorer {
+
+		protected DocScorer[] scorers;
+		private int docid = -1;
+
+		public Intersection(DocScorer[] scorers) {
+			this.scorers = scorers;
+		}
+
+		public int docID() {
+			return this.docid;
+		}
+
+		public int advance(int target) throws IOException {
+
+			if (this.docid >= target)
+				return this.docid;
+
+			if (this.scorers.length == 0) {
+				this.docid = NO_MORE_DOCS;
+				return this.docid;
+			}
+
+			//  Leapfrog: whenever an argument is past the candidate, it
+			//  becomes the new candidate, until all arguments agree.
+
+			int candidate = target;
+			int agree = 0;
+
+			for (int i = 0; agree < this.scorers.length; i = (i + 1)
+					% this.scorers.length) {
+				int d = this.scorers[i].docID();
+				if (d < candidate)
+					d = this.scorers[i].advance(candidate);
+
+				if (d == NO_MORE_DOCS) {
+					candidate = NO_MORE_DOCS;
+					break;
+				} else if (d > candidate) {
+					candidate = d;
+					agree = 1;
+				} else
+					agree++;
+			}
+
+			this.docid = candidate;
+			return this.docid;
+		}
+	}
+}
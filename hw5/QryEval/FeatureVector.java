@@ -1,5 +1,6 @@
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
 import org.apache.lucene.document.Document;
@@ -15,6 +16,9 @@ public class FeatureVector {
 	String[] tokens;
 	RetrievalModelLetor r;
 
+	// the termIds of the tokens in each field that has a preloaded lexicon
+	HashMap<String, int[]> tokenIds = new HashMap<String, int[]>();
+
 	public FeatureVector() {
 		featureList = new ArrayList<Double>();
 		pageRankHash = new HashMap<String, Double>();
@@ -71,39 +75,32 @@ public class FeatureVector {
 		
 
 		try {
-			tvBody = new TermVector(docid, "body");
+			tvBody = TermVector.open(docid, "body", TermVector.Detail.STEMS);
 		} catch (Exception e) {
 			isTvExist = false;
 		}
 
-		HashMap<String, Integer> termHash = new HashMap<String, Integer>();
-		if (isTvExist) {
-			for (int i = 1; i < tvBody.stemsLength(); i++) {
-				String term = tvBody.stemString(i);
-				if (!termHash.containsKey(term))
-					termHash.put(term, i);
-			}
-		}
+		int[] queryStemsBody = isTvExist ? queryStems("body", tvBody) : null;
 
 		// f5: BM25 score for <q, d-body>
 		if (disableArray[4] && isTvExist) {
 			//double test = calBM25Score(docid, "body", tv);
 			//System.err.println(test);
-			result.add(calBM25Score(docid, "body", tvBody));
+			result.add(calBM25Score(docid, "body", tvBody, queryStemsBody));
 		} else {
 			result.add(defaultScore);
 		}
 
 		// f6: Indri score for <q, d-body>
 		if (disableArray[5] && isTvExist) {
-			result.add(calIndriScore(docid, "body", tvBody, termHash));
+			result.add(calIndriScore(docid, "body", tvBody, queryStemsBody));
 		} else {
 			result.add(defaultScore);
 		}
 
 		// f7: Term overlap score for <q, d-body>
 		if (disableArray[6] && isTvExist) {
-			result.add(calOverlapScore(tokens, tvBody, termHash));
+			result.add(calOverlapScore(tokens, tvBody, queryStemsBody));
 		} else {
 			result.add(defaultScore);
 		}
@@ -112,22 +109,15 @@ public class FeatureVector {
 		
 		isTvExist = true;
 		try {
-			tvTitle = new TermVector(docid, "title");
+			tvTitle = TermVector.open(docid, "title", TermVector.Detail.STEMS);
 		} catch (Exception e) {
 			isTvExist = false;
 		}
 
-		HashMap<String, Integer> termHashTitle = new HashMap<String, Integer>();
-		if (isTvExist) {
-			for (int i = 1; i < tvTitle.stemsLength(); i++) {
-				String term = tvTitle.stemString(i);
-				if (!termHashTitle.containsKey(term))
-					termHashTitle.put(term, i);
-			}
-		}
+		int[] queryStemsTitle = isTvExist ? queryStems("title", tvTitle) : null;
 		// f8: BM25 score for <q, d-titile>
 		if (disableArray[7] && isTvExist) {
-			result.add(calBM25Score(docid, "title", tvTitle));
+			result.add(calBM25Score(docid, "title", tvTitle, queryStemsTitle));
 		} else {
 			result.add(defaultScore);
 		}
@@ -135,14 +125,14 @@ public class FeatureVector {
 
 		// f9: Indri score for <q, d-title>
 		if (disableArray[8] && isTvExist) {
-			result.add(calIndriScore(docid, "title", tvTitle, termHashTitle));
+			result.add(calIndriScore(docid, "title", tvTitle, queryStemsTitle));
 		} else {
 			result.add(defaultScore);
 		}
 
 		// f10: Term overlap score for <q, d-title>
 		if (disableArray[9] && isTvExist) {
-			result.add(calOverlapScore(tokens, tvTitle, termHashTitle));
+			result.add(calOverlapScore(tokens, tvTitle, queryStemsTitle));
 		} else {
 			result.add(defaultScore);
 		}
@@ -150,37 +140,30 @@ public class FeatureVector {
 		
 		isTvExist = true;
 		try {
-			tvUrl = new TermVector(docid, "url");
+			tvUrl = TermVector.open(docid, "url", TermVector.Detail.STEMS);
 		} catch (Exception e) {
 			isTvExist = false;
 		}
 
-		HashMap<String, Integer> termHashUrl = new HashMap<String, Integer>();
-		if (isTvExist) {
-			for (int i = 1; i < tvUrl.stemsLength(); i++) {
-				String term = tvUrl.stemString(i);
-				if (!termHashUrl.containsKey(term))
-					termHashUrl.put(term, i);
-			}
-		}		
+		int[] queryStemsUrl = isTvExist ? queryStems("url", tvUrl) : null;
 
 		// f11: BM25 score for <q, d-url>
 		if (disableArray[10] && isTvExist) {
-			result.add(calBM25Score(docid, "url", tvUrl));
+			result.add(calBM25Score(docid, "url", tvUrl, queryStemsUrl));
 		} else {
 			result.add(defaultScore);
 		}
 
 		// f12: Indri score for <q, d-url>
 		if (disableArray[11] && isTvExist) {
-			result.add(calIndriScore(docid, "url", tvUrl, termHashUrl));
+			result.add(calIndriScore(docid, "url", tvUrl, queryStemsUrl));
 		} else {
 			result.add(defaultScore);
 		}
 
 		// f13: Term overlap score for <q, d-url>
 		if (disableArray[12] && isTvExist) {
-			result.add(calOverlapScore(tokens, tvUrl, termHashUrl));
+			result.add(calOverlapScore(tokens, tvUrl, queryStemsUrl));
 		} else {
 			result.add(defaultScore);
 		}
@@ -190,23 +173,16 @@ public class FeatureVector {
 		
 		isTvExist = true;
 		try {
-			tvInlink = new TermVector(docid, "inlink");
+			tvInlink = TermVector.open(docid, "inlink", TermVector.Detail.STEMS);
 		} catch (Exception e) {
 			isTvExist = false;
 		}
 
-		HashMap<String, Integer> termHashInlink = new HashMap<String, Integer>();
-		if (isTvExist) {
-			for (int i = 1; i < tvInlink.stemsLength(); i++) {
-				String term = tvInlink.stemString(i);
-				if (!termHashInlink.containsKey(term))
-					termHashInlink.put(term, i);
-			}
-		}	
+		int[] queryStemsInlink = isTvExist ? queryStems("inlink", tvInlink) : null;
 
 		// f14: BM25 score for <q, d-inlink>
 		if (disableArray[13] && isTvExist) {
-			result.add(calBM25Score(docid, "inlink", tvInlink));
+			result.add(calBM25Score(docid, "inlink", tvInlink, queryStemsInlink));
 		} else {
 			result.add(defaultScore);
 		}
@@ -214,14 +190,14 @@ public class FeatureVector {
 
 		// f15: Indri score for <q, d-inlink>
 		if (disableArray[14] && isTvExist) {
-			result.add(calIndriScore(docid, "inlink", tvInlink, termHashInlink));
+			result.add(calIndriScore(docid, "inlink", tvInlink, queryStemsInlink));
 		} else {
 			result.add(defaultScore);
 		}
 
 		// f16: Term overlap score for <q, d-inlink>
 		if (disableArray[15] && isTvExist) {
-			result.add(calOverlapScore(tokens, tvInlink, termHashInlink));
+			result.add(calOverlapScore(tokens, tvInlink, queryStemsInlink));
 		} else {
 			result.add(defaultScore);
 		}
@@ -229,21 +205,21 @@ public class FeatureVector {
 		
 		isTvExist = true;
 		try {
-			tvBody = new TermVector(docid, "body");
+			tvBody = TermVector.open(docid, "body", TermVector.Detail.STEMS);
 		} catch (Exception e) {
 			isTvExist = false;
 		}
 		
 		// f17: tf*idf
 		if (disableArray[16] && isTvExist) {
-			result.add(calTfIdf(docid, "body", tvBody, termHash));
+			result.add(calTfIdf(docid, "body", tvBody, queryStemsBody));
 		} else {
 			result.add(defaultScore);
 		}
 		
 		// f18: docLen normalized score
 		if (disableArray[17] && isTvExist) {
-			result.add(calDocLenNorm(docid, "body", tvBody, termHash));
+			result.add(calDocLenNorm(docid, "body", tvBody, queryStemsBody));
 		} else {
 			result.add(defaultScore);
 		}
@@ -251,18 +227,17 @@ public class FeatureVector {
 		
 	}
 
-	private Double calDocLenNorm(int docid, String field, TermVector tv, HashMap<String, Integer> termHash) throws IOException {
+	private Double calDocLenNorm(int docid, String field, TermVector tv, int[] queryStems) throws IOException {
 		double score = 0.0;
 		double denominator = 1.0;
 		double numerator = 0.0;
 
 		for (int i = 0; i < tokens.length; i++) {
-			String queryTerm = tokens[i];
 			int tf = 0;
 			double doclen = QryEval.dls.getDocLength(field, docid);
 			
-			if (termHash.containsKey(queryTerm) && tv.stemDf(termHash.get(queryTerm)) != 0) {
-				int index = termHash.get(queryTerm);
+			if (queryStems[i] > 0 && tv.stemDf(queryStems[i]) != 0) {
+				int index = queryStems[i];
 				tf = tv.stemFreq(index);
 				numerator += Math.log(tf) + 1;
 				denominator += Math.log(doclen) + 1;
@@ -278,17 +253,16 @@ public class FeatureVector {
 	}
 	
 	/*
-	private Double calDocQuerySim(int docid, TermVector tv, HashMap<String, Integer> termHash) throws IOException {
+	private Double calDocQuerySim(int docid, TermVector tv, int[] queryStems) throws IOException {
 		double score = 0.0;
 		double denominator = 1.0;
 		double numerator = 0.0;
 		
 		
 		for (int i = 0; i < tokens.length; i++) {
-			String queryTerm = tokens[i];
 			int tf = 0;
-			if (termHash.containsKey(queryTerm) && tv.stemDf(termHash.get(queryTerm)) != 0) {
-				int index = termHash.get(queryTerm);
+			if (queryStems[i] > 0 && tv.stemDf(queryStems[i]) != 0) {
+				int index = queryStems[i];
 				tf = tv.stemFreq(index);
 				denominator += Math.pow(Math.log(tf) + 1, 2);
 				numerator += Math.log(tf) + 1;
@@ -304,17 +278,16 @@ public class FeatureVector {
 	}
 	*/
 	
-	private Double calTfIdf(int docid, String field, TermVector tv, HashMap<String, Integer> termHash) throws IOException {
+	private Double calTfIdf(int docid, String field, TermVector tv, int[] queryStems) throws IOException {
 		// TODO Auto-generated method stub
 
 		double score = 0.0;
-		double docNum = (double)(QryEval.READER.numDocs());
+		double docNum = (double)(QryEval.stats.numDocs);
 		
 		for (int i = 0; i < tokens.length; i++) {
-			String queryTerm = tokens[i];
 			
-			if (termHash.containsKey(queryTerm) && tv.stemDf(termHash.get(queryTerm)) != 0) {
-				int index = termHash.get(queryTerm);
+			if (queryStems[i] > 0 && tv.stemDf(queryStems[i]) != 0) {
+				int index = queryStems[i];
 				int tf = tv.stemFreq(index);
 				double df = (double)tv.stemDf(index);
 				double idf = Math.log((docNum + 1) / df);
@@ -325,10 +298,10 @@ public class FeatureVector {
 	}
 
 	private Double calIndriScore(int docid, String field, TermVector tv,
-			HashMap<String, Integer> termHash) throws IOException {
+			int[] queryStems) throws IOException {
 		// TODO Auto-generated method stub
 		double score = 1.0;
-		double corpusLen = QryEval.READER.getSumTotalTermFreq(field);
+		double corpusLen = QryEval.stats.field(field).sumTotalTermFreq;
 		double doclen = QryEval.dls.getDocLength(field, docid);
 		boolean contain = false;
 		double mu = r.getParameter("mu");
@@ -336,12 +309,12 @@ public class FeatureVector {
 
 		for (int i = 0; i < tokens.length; i++) {
 			String queryTerm = tokens[i];
-			long ctf = QryEval.READER.totalTermFreq(new Term(field,
+			long ctf = TermStatsCache.totalTermFreq(new Term(field,
 					new BytesRef(queryTerm)));
 			double mle = (double) ctf / (double) corpusLen;
 			int tf = 0;
-			if (termHash.containsKey(queryTerm)) {
-				tf = tv.stemFreq(termHash.get(queryTerm));
+			if (queryStems[i] > 0) {
+				tf = tv.stemFreq(queryStems[i]);
 				contain = true;
 			}
 			double scoreForToken = (1 - lambda) * ((double) tf + mu * mle)
@@ -355,42 +328,41 @@ public class FeatureVector {
 	}
 
 	private Double calOverlapScore(String[] tokens, TermVector tv,
-			HashMap<String, Integer> termHash) {
+			int[] queryStems) {
 		// TODO Auto-generated method stub
 		double score = 0.0;
 		double count = 0.0;
 
 		for (int i = 0; i < tokens.length; i++) {
-			if (termHash.containsKey(tokens[i]))
+			if (queryStems[i] > 0)
 				count += 1.0;
 		}
 		score = count / tokens.length;
 		return score;
 	}
 
-	private Double calBM25Score(int docid, String field, TermVector tv)
-			throws IOException {
+	private Double calBM25Score(int docid, String field, TermVector tv,
+			int[] queryStems) throws IOException {
 		// TODO Auto-generated method stub
 		double score = 0.0;
 		double k1, b, k3;
-		double avgDoclen = (double) QryEval.READER.getSumTotalTermFreq(field)
-				/ (double) QryEval.READER.getDocCount(field);
-		int docNum = QryEval.READER.numDocs();
+		double avgDoclen = QryEval.stats.field(field).avgLength;
+		int docNum = QryEval.stats.numDocs;
 		long doclen = QryEval.dls.getDocLength(field, docid);
 
 		k1 = r.getParameter("k_1");
 		b = r.getParameter("b");
 		k3 = r.getParameter("k_3");
 
-		// read tokens from String array to a HashMap
-		HashMap<String, Integer> tokenHash = new HashMap<String, Integer>();
-		for (int i = 0; i < tokens.length; i++) {
-			tokenHash.put(tokens[i], 0);
-		}
+		// the stems of the query terms in the document, each once, in stem
+		// order
+		int[] stems = queryStems.clone();
+		Arrays.sort(stems);
 
-		for (int i = 1; i < tv.stemsLength(); i++) {
+		for (int j = 0; j < stems.length; j++) {
+			int i = stems[j];
 			// If the word exists in both the document and the query, add score
-			if (tokenHash.containsKey(tv.stemString(i))) {
+			if (i > 0 && (j == 0 || stems[j - 1] != i)) {
 				int df = tv.stemDf(i);
 				int tf = tv.stemFreq(i);
 				double idf = Math.log((double) (docNum - df + 0.5)
@@ -406,6 +378,35 @@ public class FeatureVector {
 		return score;
 	}
 
+	/**
+	 * Find each query token among the stems of a term vector, by termId if
+	 * the field's lexicon is preloaded, otherwise by string.
+	 * 
+	 * @return the index of each token's stem, or 0 if the token isn't in
+	 *         the field
+	 */
+	private int[] queryStems(String field, TermVector tv) {
+		int[] result = new int[tokens.length];
+		Lexicon lexicon = TermStatsCache.lexicon(field);
+
+		if (lexicon == null) {
+			for (int i = 0; i < tokens.length; i++)
+				result[i] = tv.stemIndex(tokens[i]);
+			return result;
+		}
+
+		int[] ids = tokenIds.get(field);
+		if (ids == null) {
+			ids = new int[tokens.length];
+			for (int i = 0; i < tokens.length; i++)
+				ids[i] = lexicon.termId(tokens[i]);
+			tokenIds.put(field, ids);
+		}
+		for (int i = 0; i < tokens.length; i++)
+			result[i] = tv.stemIndex(ids[i]);
+		return result;
+	}
+
 	private Double getUrlDepth(String url) {
 		// TODO Auto-generated method stub
 		if (url == null)
@@ -0,0 +1,242 @@
+/**
+ *  An IndriDefaultPlan computes the default scores of a query
+ *  operator's arguments, for a document that the arguments may not
+ *  match.  The argument subtrees are compiled once into a flat list of
+ *  instructions in post-order: one instruction for each #SCORE leaf,
+ *  with its collection MLE precomputed, and one for each #AND, #WAND
+ *  or #WSUM node, which combines the values of its arguments.
+ *  Computing the defaults is a loop over the instructions with a value
+ *  stack, instead of a recursive getDefaultScore call per node, and
+ *  each field's document length is fetched once per document no matter
+ *  how many leaves use it.
+ *
+ *  The #SCORE leaves get their field and ctf from their arguments'
+ *  inverted lists, which are evaluated if necessary.
+ */
+
+import java.io.*;
+import java.nio.IntBuffer;
+import java.util.*;
+
+public class IndriDefaultPlan {
+
+	//  Instruction types.
+
+	private static final int LEAF = 0;	// A #SCORE operator
+	private static final int AND = 1;	// An Indri #AND
+	private static final int WAND = 2;
+	private static final int WSUM = 3;
+	private static final int OTHER = 4;	// Any other operator
+
+	private RetrievalModel r;
+	private boolean indri;
+	private double mu, lambda;
+
+	//  The instructions.  For a LEAF, mle and fieldSlot are used.  For
+	//  a node, arity is the number of arguments, and WAND and WSUM
+	//  nodes use weights and totalWeight.  OTHER uses others.
+
+	private int size = 0;
+	private int[] types = new int[8];
+	private int[] arity = new int[8];
+	private int[] fieldSlot = new int[8];
+	private double[] mle = new double[8];
+	private double[][] weights = new double[8][];
+	private double[] totalWeight = new double[8];
+	private QryopSl[] others = new QryopSl[8];
+
+	//  The fields that the leaves use, and their document lengths.
+
+	private List<String> fields = new ArrayList<String>();
+	private IntBuffer[] docLengths;
+
+	private int numArgs;
+	private double[] stack;
+	private double[] doclen;
+
+	/**
+	 *  Compile a plan for the arguments of an operator.
+	 *  @param q The operator.
+	 *  @param r A retrieval model that controls how the operators behave.
+	 *  @throws IOException
+	 */
+	public IndriDefaultPlan(QryopSl q, RetrievalModel r) throws IOException {
+
+		this.r = r;
+		this.indri = (r instanceof RetrievalModelIndri);
+		if (this.indri) {
+			this.mu = ((RetrievalModelIndri) r).getMu();
+			this.lambda = ((RetrievalModelIndri) r).getLambda();
+		}
+
+		this.numArgs = q.args.size();
+		for (int i = 0; i < this.numArgs; i++)
+			q.argSl(i).compileDefaultPlan(this);
+
+		this.docLengths = new IntBuffer[this.fields.size()];
+		for (int i = 0; i < this.docLengths.length; i++)
+			this.docLengths[i] = QryEval.dls.getDocLengths(this.fields.get(i));
+
+		this.stack = new double[this.size];
+		this.doclen = new double[this.docLengths.length];
+	}
+
+	/**
+	 *  The retrieval model that the plan is compiled for.
+	 */
+	RetrievalModel model() {
+		return this.r;
+	}
+
+	/**
+	 *  Add an instruction, growing the arrays if necessary.
+	 */
+	private int add(int type) {
+		if (this.size == this.types.length) {
+			int capacity = this.size * 2;
+			this.types = Arrays.copyOf(this.types, capacity);
+			this.arity = Arrays.copyOf(this.arity, capacity);
+			this.fieldSlot = Arrays.copyOf(this.fieldSlot, capacity);
+			this.mle = Arrays.copyOf(this.mle, capacity);
+			this.weights = Arrays.copyOf(this.weights, capacity);
+			this.totalWeight = Arrays.copyOf(this.totalWeight, capacity);
+			this.others = Arrays.copyOf(this.others, capacity);
+		}
+		this.types[this.size] = type;
+		return this.size++;
+	}
+
+	/**
+	 *  Add a #SCORE leaf.
+	 *  @param field The field of the leaf's inverted list.
+	 *  @param ctf The collection term frequency of the inverted list.
+	 */
+	void addLeaf(String field, double ctf) {
+		int slot = this.fields.indexOf(field);
+		if (slot < 0) {
+			slot = this.fields.size();
+			this.fields.add(field);
+		}
+
+		int i = add(LEAF);
+		this.fieldSlot[i] = slot;
+		if (this.indri)
+			this.mle[i] = ctf / QryEval.stats.field(field).sumTotalTermFreq;
+	}
+
+	/**
+	 *  Add an Indri #AND node, after its n arguments.
+	 */
+	void addAnd(int n) {
+		int i = add(AND);
+		this.arity[i] = n;
+	}
+
+	/**
+	 *  Add a #WAND node, after its arguments.
+	 */
+	void addWand(List<Double> argWeights, int n) {
+		addWeighted(WAND, argWeights, n);
+	}
+
+	/**
+	 *  Add a #WSUM node, after its arguments.
+	 */
+	void addWsum(List<Double> argWeights, int n) {
+		addWeighted(WSUM, argWeights, n);
+	}
+
+	private void addWeighted(int type, List<Double> argWeights, int n) {
+		int i = add(type);
+		this.arity[i] = n;
+		this.weights[i] = new double[n];
+		for (int j = 0; j < n; j++) {
+			this.weights[i][j] = argWeights.get(j);
+			this.totalWeight[i] += this.weights[i][j];
+		}
+	}
+
+	/**
+	 *  Add an operator whose default score is computed by calling its
+	 *  getDefaultScore method.
+	 */
+	void addOther(QryopSl q) {
+		int i = add(OTHER);
+		this.others[i] = q;
+	}
+
+	/**
+	 *  Compute the default score of every argument for a document.
+	 *  @param docid The internal id of the document.
+	 *  @param defaults Receives the default score of each argument.
+	 *  @throws IOException
+	 */
+	public void argDefaults(int docid, double[] defaults) throws IOException {
+
+		//  Fetch each field's document length once.
+
+		double[] doclen = this.doclen;
+		for (int i = 0; i < doclen.length; i++)
+			doclen[i] = this.docLengths[i].get(docid);
+
+		double[] stack = this.stack;
+		int top = 0;
+
+		for (int i = 0; i < this.size; i++) {
+			double score;
+
+			switch (this.types[i]) {
+			case LEAF:
+				if (this.indri)
+					score = (1 - lambda) * (mu * mle[i])
+							/ (doclen[fieldSlot[i]] + mu) + lambda * mle[i];
+				else
+					score = 0.0;
+				break;
+
+			case AND: {
+				int n = this.arity[i];
+				top -= n;
+				score = 1.0;
+				for (int j = 0; j < n; j++)
+					score *= stack[top + j];
+				score = this.indri ? Math.pow(score, 1.0 / n) : 0.0;
+				break;
+			}
+
+			case WAND: {
+				int n = this.arity[i];
+				double w = this.totalWeight[i];
+				top -= n;
+				score = 1.0;
+				for (int j = 0; j < n; j++)
+					score *= Math.pow(stack[top + j], this.weights[i][j] / w);
+				if (w == 0)
+					score = 1.0;
+				break;
+			}
+
+			case WSUM: {
+				int n = this.arity[i];
+				double w = this.totalWeight[i];
+				top -= n;
+				score = 0.0;
+				for (int j = 0; j < n; j++)
+					score += stack[top + j] * this.weights[i][j];
+				if (w > 0)
+					score = score / w;
+				else if (w == 0)
+					score = 1.0;
+				break;
+			}
+
+			default:
+				score = this.others[i].getDefaultScore(this.r, docid);
+			}
+
+			stack[top++] = score;
+		}
+
+		System.arraycopy(stack, 0, defaults, 0, this.numArgs);
+	}
+}
@@ -0,0 +1,368 @@
+/**
+ *  IndriLogEvaluator evaluates an Indri query entirely in log space,
+ *  which is used when Indri:logSpace=true.  Multiplying probabilities
+ *  and then taking a root underflows on long queries, such as expanded
+ *  queries, and calls Math.pow once per argument per document.  In log
+ *  space, #AND and #WAND are weighted sums of their arguments' log
+ *  scores, and #WSUM is a weighted log-sum-exp.  The weights are
+ *  normalized when the query is parsed (see QryopSlW).
+ *
+ *  The query tree is compiled into a flat list of instructions in
+ *  post-order.  The candidate documents (every document that some
+ *  query term matches) are scored a block at a time: each instruction
+ *  fills or combines arrays of BLOCK_SIZE scores, using the kernels at
+ *  the end of this class.  The kernels are simple loops over primitive
+ *  arrays, which the JIT can unroll and vectorize.
+ *
+ *  The scores in the result are log probabilities.
+ */
+
+import java.io.*;
+import java.nio.IntBuffer;
+import java.util.*;
+
+public class IndriLogEvaluator {
+
+	private static final int BLOCK_SIZE = 512;
+
+	//  Instruction types.
+
+	private static final int LEAF = 0;	// An inverted list
+	private static final int SUM = 1;	// #AND and #WAND
+	private static final int LOG_SUM_EXP = 2;	// #WSUM
+
+	private double mu, lambda;
+
+	//  The instructions.  A LEAF uses leaf; SUM and LOG_SUM_EXP use
+	//  arity and weights.
+
+	private int size = 0;
+	private int[] types = new int[8];
+	private int[] arity = new int[8];
+	private int[] leaf = new int[8];
+	private double[][] weights = new double[8][];
+
+	//  The inverted lists of the leaves, their fields and collection
+	//  MLEs.
+
+	private List<InvList> lists = new ArrayList<InvList>();
+	private List<Double> mles = new ArrayList<Double>();
+	private List<Integer> leafFields = new ArrayList<Integer>();
+	private List<String> fields = new ArrayList<String>();
+
+	/**
+	 *  Whether a query tree can be evaluated in log space.  It can if it
+	 *  only has #AND, #WAND and #WSUM operators above its inverted list
+	 *  operators.
+	 *  @param q The query tree.
+	 *  @return True if the tree can be evaluated.
+	 */
+	public static boolean canEvaluate(Qryop q) {
+
+		if (q instanceof QryopIl)
+			return true;
+
+		if (q instanceof QryopSlScore)
+			return q.args.size() == 1 && q.args.get(0) instanceof QryopIl;
+
+		if (!(q instanceof QryopSlIndriAnd || q instanceof QryopSlWand
+				|| q instanceof QryopSlWsum))
+			return false;
+
+		for (Qryop arg : q.args)
+			if (!canEvaluate(arg))
+				return false;
+		return true;
+	}
+
+	/**
+	 *  Evaluate a query tree in log space.  The tree must pass
+	 *  canEvaluate.
+	 *  @param q The query tree.
+	 *  @param r An Indri retrieval model.
+	 *  @return The result of evaluating the query, with log scores.
+	 *  @throws IOException
+	 */
+	public static QryResult evaluate(Qryop q, RetrievalModelIndri r)
+			throws IOException {
+		IndriLogEvaluator evaluator = new IndriLogEvaluator(r);
+		evaluator.compile(q, r);
+		return evaluator.run();
+	}
+
+	private IndriLogEvaluator(RetrievalModelIndri r) {
+		this.mu = r.getMu();
+		this.lambda = r.getLambda();
+	}
+
+	/**
+	 *  Compile a query tree, evaluating its inverted list operators.
+	 */
+	private void compile(Qryop q, RetrievalModel r) throws IOException {
+
+		if (q instanceof QryopSlScore)
+			q = q.args.get(0);
+
+		if (q instanceof QryopIl) {
+			InvList list = QryEval.evaluateArg(q, r).invertedList;
+			int i = add(LEAF);
+			this.leaf[i] = this.lists.size();
+			this.lists.add(list);
+
+			if (list.df == 0)
+				this.mles.add(0.0);
+			else
+				this.mles.add((double) list.ctf
+						/ QryEval.stats.field(list.field).sumTotalTermFreq);
+
+			int slot = this.fields.indexOf(list.field);
+			if (slot < 0 && list.df > 0) {
+				slot = this.fields.size();
+				this.fields.add(list.field);
+			}
+			this.leafFields.add(slot);
+			return;
+		}
+
+		int n = q.args.size();
+		for (int j = 0; j < n; j++)
+			compile(q.args.get(j), r);
+
+		double[] w;
+		if (q instanceof QryopSlW)
+			w = ((QryopSlW) q).normalizedWeights();
+		else {
+			w = new double[n];
+			Arrays.fill(w, 1.0 / n);
+		}
+
+		int i = add((q instanceof QryopSlWsum) ? LOG_SUM_EXP : SUM);
+		this.arity[i] = n;
+		this.weights[i] = w;
+	}
+
+	/**
+	 *  Add an instruction, growing the arrays if necessary.
+	 */
+	private int add(int type) {
+		if (this.size == this.types.length) {
+			int capacity = this.size * 2;
+			this.types = Arrays.copyOf(this.types, capacity);
+			this.arity = Arrays.copyOf(this.arity, capacity);
+			this.leaf = Arrays.copyOf(this.leaf, capacity);
+			this.weights = Arrays.copyOf(this.weights, capacity);
+		}
+		this.types[this.size] = type;
+		return this.size++;
+	}
+
+	/**
+	 *  Score every candidate document, a block at a time.
+	 */
+	private QryResult run() throws IOException {
+
+		QryResult result = new QryResult();
+		result.docScores.logSpace = true;
+
+		int[] candidates = candidates();
+		int numLeaves = this.lists.size();
+
+		IntBuffer[] docLengths = new IntBuffer[this.fields.size()];
+		for (int f = 0; f < docLengths.length; f++)
+			docLengths[f] = QryEval.dls.getDocLengths(this.fields.get(f));
+
+		double[][] doclen = new double[docLengths.length][BLOCK_SIZE];
+		double[][] stack = new double[this.size][BLOCK_SIZE];
+		double[] max = new double[BLOCK_SIZE];
+		double[] sum = new double[BLOCK_SIZE];
+		int[] next = new int[numLeaves];	// Each leaf's next posting
+
+		for (int start = 0; start < candidates.length; start += BLOCK_SIZE) {
+			int m = Math.min(BLOCK_SIZE, candidates.length - start);
+
+			for (int f = 0; f < docLengths.length; f++)
+				for (int j = 0; j < m; j++)
+					doclen[f][j] = docLengths[f].get(candidates[start + j]);
+
+			int top = 0;
+
+			for (int i = 0; i < this.size; i++) {
+				switch (this.types[i]) {
+				case LEAF: {
+					int k = this.leaf[i];
+					next[k] = scoreLeaf(k, candidates, start, m, doclen,
+							next[k], stack[top]);
+					top++;
+					break;
+				}
+
+				case SUM:
+					top -= this.arity[i];
+					weightedSum(stack, top, this.arity[i], this.weights[i], m);
+					top++;
+					break;
+
+				default:
+					top -= this.arity[i];
+					logWeightedSum(stack, top, this.arity[i], this.weights[i],
+							m, max, sum);
+					top++;
+				}
+			}
+
+			for (int j = 0; j < m; j++)
+				result.docScores.add(candidates[start + j], stack[0][j]);
+		}
+
+		return result;
+	}
+
+	/**
+	 *  The sorted, distinct documents that any leaf matches.
+	 */
+	private int[] candidates() {
+
+		int total = 0;
+		for (InvList list : this.lists)
+			total += list.df;
+
+		int[] docids = new int[total];
+		int n = 0;
+		for (InvList list : this.lists)
+			for (int p = 0; p < list.df; p++)
+				docids[n++] = list.getDocid(p);
+
+		Arrays.sort(docids);
+
+		int distinct = 0;
+		for (int p = 0; p < n; p++)
+			if (distinct == 0 || docids[p] != docids[distinct - 1])
+				docids[distinct++] = docids[p];
+
+		return Arrays.copyOf(docids, distinct);
+	}
+
+	/**
+	 *  Score a block of candidates for one leaf: the default score for
+	 *  every candidate, then the postings that fall in the block.
+	 *  @return The leaf's next posting after the block.
+	 */
+	private int scoreLeaf(int k, int[] candidates, int start, int m,
+			double[][] doclen, int p, double[] out) {
+
+		InvList list = this.lists.get(k);
+		double mle = this.mles.get(k);
+
+		if (list.df == 0) {
+			Arrays.fill(out, 0, m, Math.log(mle));
+			return p;
+		}
+
+		double[] len = doclen[this.leafFields.get(k)];
+		double muMle = this.mu * mle;
+		double background = this.lambda * mle;
+
+		logDefaults(len, m, (1 - this.lambda) * muMle, this.mu, background,
+				out);
+
+		int last = candidates[start + m - 1];
+		int j = 0;
+
+		for (; p < list.df && list.getDocid(p) <= last; p++) {
+			int docid = list.getDocid(p);
+			while (candidates[start + j] < docid)
+				j++;
+			out[j] = Math.log((1 - this.lambda) * (list.getTf(p) + muMle)
+					/ (len[j] + this.mu) + background);
+		}
+
+		return p;
+	}
+
+	//  Kernels.  Each one works on the first m entries of its arrays.
+
+	/**
+	 *  out[j] = log(a / (len[j] + mu) + b), the log default score of a
+	 *  term in documents of length len[j].
+	 */
+	static void logDefaults(double[] len, int m, double a, double mu,
+			double b, double[] out) {
+		for (int j = 0; j < m; j++)
+			out[j] = Math.log(a / (len[j] + mu) + b);
+	}
+
+	/**
+	 *  stack[first] = sum of w[i] * stack[first + i], for the n arrays
+	 *  starting at stack[first].  Arguments with a weight of 0 are
+	 *  skipped, so that a log score of -Infinity doesn't give NaN.
+	 */
+	static void weightedSum(double[][] stack, int first, int n, double[] w,
+			int m) {
+
+		double[] out = stack[first];
+		int i = 0;
+		while (i < n && w[i] == 0)
+			i++;
+
+		if (i == n) {
+			Arrays.fill(out, 0, m, 0.0);
+			return;
+		}
+
+		double[] x = stack[first + i];
+		double wi = w[i];
+		for (int j = 0; j < m; j++)
+			out[j] = wi * x[j];
+
+		for (i++; i < n; i++) {
+			if (w[i] == 0)
+				continue;
+			x = stack[first + i];
+			wi = w[i];
+			for (int j = 0; j < m; j++)
+				out[j] += wi * x[j];
+		}
+	}
+
+	/**
+	 *  stack[first] = log(sum of w[i] * exp(stack[first + i])), for the
+	 *  n arrays starting at stack[first].  The largest argument is
+	 *  factored out of the sum, so that exp doesn't underflow.
+	 */
+	static void logWeightedSum(double[][] stack, int first, int n,
+			double[] w, int m, double[] max, double[] sum) {
+
+		double[] out = stack[first];
+
+		Arrays.fill(max, 0, m, Double.NEGATIVE_INFINITY);
+		for (int i = 0; i < n; i++) {
+			if (w[i] == 0)
+				continue;
+			double[] x = stack[first + i];
+			for (int j = 0; j < m; j++)
+				max[j] = Math.max(max[j], x[j]);
+		}
+
+		Arrays.fill(sum, 0, m, 0.0);
+		boolean weighted = false;
+		for (int i = 0; i < n; i++) {
+			if (w[i] == 0)
+				continue;
+			weighted = true;
+			double[] x = stack[first + i];
+			double wi = w[i];
+			for (int j = 0; j < m; j++)
+				if (max[j] != Double.NEGATIVE_INFINITY)
+					sum[j] += wi * Math.exp(x[j] - max[j]);
+		}
+
+		if (!weighted) {
+			Arrays.fill(out, 0, m, 0.0);
+			return;
+		}
+
+		for (int j = 0; j < m; j++)
+			out[j] = (max[j] == Double.NEGATIVE_INFINITY) ? max[j] : max[j]
+					+ Math.log(sum[j]);
+	}
+}
@@ -0,0 +1,110 @@
+import java.util.Arrays;
+
+/**
+ * IntIntMap maps non-negative int keys (docids, term ids) to int values,
+ * without boxing them the way a HashMap<Integer, Integer> does. It is an
+ * open-addressing hash table with linear probing, kept at most half
+ * full, so a lookup usually probes one or two slots.  A key's home slot
+ * is the high bits of a multiplicative (Fibonacci) hash, which depend on
+ * every bit of the key, so keys with a power-of-two stride spread out.
+ */
+public class IntIntMap {
+
+	private static final int EMPTY = -1;
+
+	private int[] keys;
+	private int[] values;
+	private int size = 0;
+
+	/**
+	 * @param capacity
+	 *            The number of keys that the map is expected to hold. It
+	 *            grows if it holds more.
+	 */
+	public IntIntMap(int capacity) {
+		int slots = 16;
+		while (slots < 2 * capacity)
+			slots <<= 1;
+		this.keys = new int[slots];
+		this.values = new int[slots];
+		Arrays.fill(this.keys, EMPTY);
+	}
+
+	/**
+	 * @param key
+	 *            The key, which must not be negative.
+	 * @param missing
+	 *            The value to return if the key isn't in the map.
+	 * @return The key's value, or missing.
+	 */
+	public int get(int key, int missing) {
+		int slot = slot(this.keys, key);
+		return (this.keys[slot] == key) ? this.values[slot] : missing;
+	}
+
+	/**
+	 * Set a key's value.
+	 *
+	 * @param key
+	 *            The key, which must not be negative.
+	 * @param value
+	 *            The value.
+	 */
+	public void put(int key, int value) {
+		int slot = slot(this.keys, key);
+
+		if (this.keys[slot] != key) {
+			this.keys[slot] = key;
+			this.size++;
+		}
+		this.values[slot] = value;
+
+		if (2 * this.size > this.keys.length)
+			grow();
+	}
+
+	/**
+	 * @return The number of keys in the map.
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Remove every key, keeping the table for reuse.
+	 */
+	public void clear() {
+		if (this.size > 0)
+			Arrays.fill(this.keys, EMPTY);
+		this.size = 0;
+	}
+
+	private void grow() {
+		int[] oldKeys = this.keys;
+		int[] oldValues = this.values;
+
+		this.keys = new int[2 * oldKeys.length];
+		this.values = new int[2 * oldKeys.length];
+		Arrays.fill(this.keys, EMPTY);
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				int slot = slot(this.keys, oldKeys[i]);
+				this.keys[slot] = oldKeys[i];
+				this.values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * The slot that holds a key, or the empty slot where it belongs.
+	 */
+	private static int slot(int[] keys, int key) {
+		int mask = keys.length - 1;
+		int slot = (key * 0x9E3779B9) >>> Integer.numberOfLeadingZeros(mask);
+
+		while (keys[slot] != EMPTY && keys[slot] != key)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+}
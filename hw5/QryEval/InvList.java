@@ -4,6 +4,12 @@
  *  Its purpose is to provide a simpler view of inverted lists than
  *  Lucene's native implementation.
  *
+ *  Postings are stored in parallel primitive arrays rather than as
+ *  one object per posting.  docids[i] and tfs[i] describe the i'th
+ *  posting, and its positions are positions[posOffsets[i]] through
+ *  positions[posOffsets[i+1]-1].  This keeps large inverted lists
+ *  compact and avoids boxing every position.
+ *
  *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
  */
 
@@ -16,34 +22,24 @@ import org.apache.lucene.search.*;
 
 public class InvList {
 
-  //  Utility class that makes it easier to construct postings.
-  public class DocPosting {
-
-    public int docid = 0;
-    public int tf = 0;
-    public Vector<Integer> positions = new Vector<Integer>();
-
-    public DocPosting(int d, int... locations) {
-      this.docid = d;
-      this.tf = locations.length;
-      for (int i = 0; i < locations.length; i++)
-        this.positions.add(locations[i]);
-    }
+  //  Initial capacities of lists that are built incrementally.
 
-    public DocPosting(int d, List<Integer> locations) {
-      this.docid = d;
-      this.tf = locations.size();
-      for (int i = 0; i < locations.size(); i++)
-        this.positions.add(locations.get(i));
-    }
-  }
+  private static final int INITIAL_POSTINGS = 16;
+  private static final int INITIAL_POSITIONS = 64;
 
   //  Class variables.
 
   public int ctf = 0;
   public int df = 0;
   public String field;
-  public Vector<DocPosting> postings = new Vector<DocPosting>();
+
+  //  The first df entries of docids and tfs, the first df+1 entries
+  //  of posOffsets, and the first ctf entries of positions are valid.
+
+  private int[] docids = new int[0];
+  private int[] tfs = new int[0];
+  private int[] posOffsets = new int[] { 0 };
+  private int[] positions = new int[0];
 
   /**
    *  Constructor.  An empty inverted list. Useful for some query operators.
@@ -75,9 +71,21 @@ public class InvList {
     BytesRef termBytes = new BytesRef(termString);
     Term term = new Term(fieldString, termBytes);
 
-    if (QryEval.READER.docFreq(term) < 1)
+    int termDf = QryEval.READER.docFreq(term);
+
+    if (termDf < 1)
       return;
 
+    //  The index statistics give exact sizes for the arrays, unless
+    //  some documents are deleted, in which case they are upper bounds.
+
+    long termCtf = QryEval.READER.totalTermFreq(term);
+
+    this.docids = new int[termDf];
+    this.tfs = new int[termDf];
+    this.posOffsets = new int[termDf + 1];
+    this.positions = new int[(termCtf > 0) ? (int) termCtf : INITIAL_POSITIONS];
+
     //  Lookup the inverted list.
 
     DocsAndPositionsEnum iList =
@@ -93,48 +101,109 @@ public class InvList {
     while (iList.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
 
       int tf = iList.freq();
-      int[] positions = new int[tf];
+
+      ensureCapacity (this.df + 1, this.ctf + tf);
 
       for (int j = 0; j < tf; j++)
-        positions[j] = iList.nextPosition();
+        this.positions[this.ctf + j] = iList.nextPosition();
 
-      this.postings.add(new DocPosting(iList.docID(), positions));
+      this.docids[this.df] = iList.docID();
+      this.tfs[this.df] = tf;
       this.df++;
       this.ctf += tf;
+      this.posOffsets[this.df] = this.ctf;
     }
   }
 
   /**
    *  Append a posting to the posting list.  Posting must be appended
    *  in docid order, otherwise this method fails.
-   *  @param n The posting internal document id.
-   *  @param positions A list of positions where the term occurs.
+   *  @param docid The posting internal document id.
+   *  @param locations An array of positions where the term occurs.
+   *  @param length The number of entries of locations to use.
    *  @result true if the posting was added successfully, otherwise false.
    */
-  public boolean appendPosting (int docid, List<Integer> positions) {
-    
+  public boolean appendPosting (int docid, int[] locations, int length) {
+
     //  A posting can only be appended if its docid is greater than
     //  the last docid.
 
-    if ((this.df > 1) &&
-	(this.postings.get(this.df-1).docid >= docid))
+    if ((this.df > 0) &&
+	(this.docids[this.df-1] >= docid))
       return false;
 
-    DocPosting p = new DocPosting (docid, positions);
+    ensureCapacity (this.df + 1, this.ctf + length);
+    System.arraycopy (locations, 0, this.positions, this.ctf, length);
 
-    this.postings.add (p);
+    this.docids[this.df] = docid;
+    this.tfs[this.df] = length;
     this.df ++;
-    this.ctf += p.tf;
+    this.ctf += length;
+    this.posOffsets[this.df] = this.ctf;
     return true;
   }
 
+  /**
+   *  Append a posting to the posting list.  Posting must be appended
+   *  in docid order, otherwise this method fails.
+   *  @param docid The posting internal document id.
+   *  @param locations An array of positions where the term occurs.
+   *  @result true if the posting was added successfully, otherwise false.
+   */
+  public boolean appendPosting (int docid, int[] locations) {
+    return appendPosting (docid, locations, locations.length);
+  }
+
+  /**
+   *  Grow the arrays so that they can hold at least the specified
+   *  number of postings and positions.
+   *  @param numPostings The number of postings required.
+   *  @param numPositions The number of positions required.
+   */
+  private void ensureCapacity (int numPostings, int numPositions) {
+
+    if (numPostings > this.docids.length) {
+      int capacity = Math.max (INITIAL_POSTINGS,
+			       Math.max (numPostings, this.docids.length * 2));
+      this.docids = Arrays.copyOf (this.docids, capacity);
+      this.tfs = Arrays.copyOf (this.tfs, capacity);
+      this.posOffsets = Arrays.copyOf (this.posOffsets, capacity + 1);
+    }
+
+    if (numPositions > this.positions.length) {
+      int capacity = Math.max (INITIAL_POSITIONS,
+			       Math.max (numPositions, this.positions.length * 2));
+      this.positions = Arrays.copyOf (this.positions, capacity);
+    }
+  }
+
+  /**
+   *  Shrink the arrays to the list's size, once no more postings
+   *  will be appended.
+   */
+  public void trimToSize () {
+    this.docids = Arrays.copyOf (this.docids, this.df);
+    this.tfs = Arrays.copyOf (this.tfs, this.df);
+    this.posOffsets = Arrays.copyOf (this.posOffsets, this.df + 1);
+    this.positions = Arrays.copyOf (this.positions, this.ctf);
+  }
+
+  /**
+   *  Estimate the memory that the list uses.
+   *  @return The size in bytes.
+   */
+  public long memoryUsage () {
+    return 64 + 4L * (this.docids.length + this.tfs.length +
+		      this.posOffsets.length + this.positions.length);
+  }
+
   /**
    *  Get the n'th document id from the inverted list.
    *  @param n The index of the requested document.
    *  @return The internal document id.
    */
   public int getDocid(int n) {
-    return this.postings.get(n).docid;
+    return this.docids[n];
   }
 
   /**
@@ -143,7 +212,29 @@ public class InvList {
    *  @return The document's term frequency.
    */
   public int getTf(int n) {
-    return this.postings.get(n).tf;
+    return this.tfs[n];
+  }
+
+  /**
+   *  Get the j'th position in the n'th document of the inverted list.
+   *  @param n The index of the requested document.
+   *  @param j The index of the requested position, 0 <= j < getTf(n).
+   *  @return The position.
+   */
+  public int getPosition(int n, int j) {
+    return this.positions[this.posOffsets[n] + j];
+  }
+
+  /**
+   *  Get a copy of the positions in the n'th document of the inverted
+   *  list.  Query operators that only read a few positions should use
+   *  getPosition instead, which does not allocate.
+   *  @param n The index of the requested document.
+   *  @return The positions, in ascending order.
+   */
+  public int[] getPositions(int n) {
+    return Arrays.copyOfRange (this.positions, this.posOffsets[n],
+			       this.posOffsets[n+1]);
   }
 
   /**
@@ -154,11 +245,11 @@ public class InvList {
     System.out.println("df:  " + this.df + ", ctf: " + this.ctf);
 
     for (int i = 0; i < this.df; i++) {
-      System.out.print("docid:  " + this.postings.elementAt(i).docid + ", tf: "
-          + this.postings.elementAt(i).tf + ", locs: ");
+      System.out.print("docid:  " + this.docids[i] + ", tf: "
+          + this.tfs[i] + ", locs: ");
 
-      for (int j = 0; j < this.postings.elementAt(i).tf; j++) {
-        System.out.print(this.postings.elementAt(i).positions.elementAt(j) + " ");
+      for (int j = 0; j < this.tfs[i]; j++) {
+        System.out.print(getPosition(i, j) + " ");
       }
 
       System.out.println();
@@ -0,0 +1,70 @@
+import java.io.IOException;
+
+/**
+ * InvListCache keeps the inverted lists of frequent terms, so that a
+ * term that occurs several times in a query, or in many queries, is
+ * read and decoded from the index once.  It is shared by all of the
+ * queries in a run, including the requests to a QueryServer.
+ *
+ * Only lists with a df of at least minDf are cached.  Rare terms are
+ * cheap to read and unlikely to be shared, and would evict the lists
+ * that are worth keeping.  The cache holds at most a fixed number of
+ * bytes and evicts the least recently used lists first.
+ */
+public class InvListCache extends LruCache<String, InvList> {
+
+  private final int minDf;
+
+  /**
+   * @param maxBytes The most memory that cached lists may use.
+   * @param minDf The smallest df of a list that is cached.
+   */
+  public InvListCache(long maxBytes, int minDf) {
+    super(maxBytes);
+    this.minDf = minDf;
+  }
+
+  /**
+   * Returns the inverted list of a term, reading it from the index if
+   * it isn't cached.  The list must not be modified.
+   *
+   * @param term The processed (stemmed, lower-cased, etc) term string.
+   * @param field The field that the term occurs in.
+   * @throws IOException
+   */
+  public InvList get(String term, String field) throws IOException {
+    String key = key(term, field);
+    InvList list = get(key);
+
+    if (list == null) {
+      list = new InvList(term, field);
+
+      if (list.df >= this.minDf) {
+        list.trimToSize();
+        put(key, list, list.memoryUsage() + 2L * key.length());
+      }
+    }
+
+    return list;
+  }
+
+  /**
+   * Returns the inverted list of a term if it is cached, without
+   * reading it from the index.
+   *
+   * @param term The processed (stemmed, lower-cased, etc) term string.
+   * @param field The field that the term occurs in.
+   * @return The list, or null if it isn't cached.
+   */
+  public InvList getIfCached(String term, String field) {
+    return probe(key(term, field));
+  }
+
+  private static String key(String term, String field) {
+    return field + ":" + term;
+  }
+
+  public String toString() {
+    return "Inverted list cache: " + super.toString();
+  }
+}
@@ -0,0 +1,324 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import org.apache.lucene.index.*;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Lexicon is the vocabulary of one field: every term in the field, in
+ * index (UTF-8 byte) order, with its df and ctf.  A term's termId is its
+ * rank in that order, so ids are dense (0 to size()-1), and the ids of
+ * the stems of a term vector, which are also in byte order, increase.
+ *
+ * The lexicon is kept in a single buffer with this layout (all numbers
+ * big-endian):
+ *
+ *   header:   MAGIC, index version (long), number of terms
+ *   offsets:  int[size+1]; term i is the UTF-8 bytes
+ *             terms[offsets[i]] to terms[offsets[i+1]-1]
+ *   df:       int[size]
+ *   ctf:      long[size]
+ *   terms:    the UTF-8 terms, in termId order
+ *
+ * If a directory is given, the buffer is written to a file there
+ * (field.lex) and memory-mapped by later runs, as long as the index has
+ * not changed since.  The file is written under a temporary name and
+ * renamed into place, so a run never maps a partly written file.  The
+ * files can also be built ahead of time with:
+ *
+ *   java Lexicon indexPath lexiconDirectory field...
+ */
+public class Lexicon {
+
+  private static final int MAGIC = 0x4c455831; // "LEX1"
+  private static final int HEADER_SIZE = 4 + 8 + 4;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private ByteBuffer buffer;
+  private int size;
+  private int offsetsStart;
+  private int dfStart;
+  private int ctfStart;
+  private int termsStart;
+
+  /**
+   * Map the field's lexicon file if it matches the index, otherwise
+   * build the lexicon and write the file.
+   *
+   * @param reader IndexReader object created in {@link QryEval}.
+   * @param field The field.
+   * @param path The directory of lexicon files, or null to keep the
+   * lexicon on the heap only.
+   */
+  public Lexicon(IndexReader reader, String field, String path)
+    throws IOException {
+
+    long version = (reader instanceof DirectoryReader) ?
+      ((DirectoryReader) reader).getVersion() : -1;
+
+    if (path == null || version == -1) {
+      this.buffer = build(reader, field, version);
+    } else {
+      File file = new File(path, field + ".lex");
+      this.buffer = map(file, version);
+
+      if (this.buffer == null) {
+        write(file, build(reader, field, version));
+        this.buffer = map(file, version);
+      }
+    }
+
+    this.size = this.buffer.getInt(12);
+    this.offsetsStart = HEADER_SIZE;
+    this.dfStart = this.offsetsStart + 4 * (this.size + 1);
+    this.ctfStart = this.dfStart + 4 * this.size;
+    this.termsStart = this.ctfStart + 8 * this.size;
+  }
+
+  /**
+   * Read the terms of a field and lay them out in a buffer.
+   */
+  private static ByteBuffer build(IndexReader reader, String field,
+                                  long version) throws IOException {
+
+    int size = 0;
+    int[] offsets = new int[1025];
+    int[] df = new int[1024];
+    long[] ctf = new long[1024];
+    ByteArrayOutputStream terms = new ByteArrayOutputStream();
+
+    Terms fieldTerms = MultiFields.getTerms(reader, field);
+    if (fieldTerms != null) {
+      TermsEnum termsEnum = fieldTerms.iterator(null);
+      BytesRef term;
+
+      while ((term = termsEnum.next()) != null) {
+        if (size == df.length) {
+          offsets = Arrays.copyOf(offsets, 2 * size + 1);
+          df = Arrays.copyOf(df, 2 * size);
+          ctf = Arrays.copyOf(ctf, 2 * size);
+        }
+        terms.write(term.bytes, term.offset, term.length);
+        df[size] = termsEnum.docFreq();
+        ctf[size] = termsEnum.totalTermFreq();
+        offsets[++size] = terms.size();
+      }
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 4 * (size + 1) +
+                                            12 * size + terms.size());
+    buffer.putInt(MAGIC).putLong(version).putInt(size);
+
+    for (int i = 0; i <= size; i++)
+      buffer.putInt(offsets[i]);
+    for (int i = 0; i < size; i++)
+      buffer.putInt(df[i]);
+    for (int i = 0; i < size; i++)
+      buffer.putLong(ctf[i]);
+    buffer.put(terms.toByteArray());
+
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Write a lexicon buffer to a temporary file, and rename it to the
+   * lexicon file.
+   */
+  private static void write(File file, ByteBuffer buffer) throws IOException {
+
+    file.getParentFile().mkdirs();
+
+    File tmp = File.createTempFile(file.getName(), ".tmp",
+                                   file.getParentFile());
+    try {
+      FileOutputStream out = new FileOutputStream(tmp);
+      try {
+        while (buffer.hasRemaining())
+          out.getChannel().write(buffer);
+      } finally {
+        out.close();
+      }
+      Files.move(tmp.toPath(), file.toPath(),
+                 StandardCopyOption.REPLACE_EXISTING,
+                 StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      tmp.delete();
+    }
+  }
+
+  /**
+   * Memory-map a lexicon file.
+   *
+   * @return The buffer, or null if the file is missing, stale or not
+   * the length that its header and offsets say.
+   */
+  private static ByteBuffer map(File file, long version) throws IOException {
+
+    if (!file.exists())
+      return null;
+
+    MappedByteBuffer buffer;
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                                    raf.length());
+    } finally {
+      raf.close();
+    }
+
+    if (buffer.capacity() < HEADER_SIZE ||
+        buffer.getInt(0) != MAGIC ||
+        buffer.getLong(4) != version)
+      return null;
+
+    //  The terms end where the last offset says.
+
+    long size = buffer.getInt(12);
+    long termsStart = HEADER_SIZE + 4 * (size + 1) + 12 * size;
+
+    if (size < 0 || buffer.capacity() < termsStart ||
+        buffer.capacity() !=
+        termsStart + buffer.getInt((int) (HEADER_SIZE + 4 * size)))
+      return null;
+
+    return buffer;
+  }
+
+  /**
+   * Returns the number of terms in the field.
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * Returns the termId of a term, by binary search over the terms.
+   *
+   * @param term The term's UTF-8 bytes.
+   * @return The termId, or -1 if the term isn't in the field.
+   */
+  public int termId(BytesRef term) {
+    return termId(term, 0);
+  }
+
+  /**
+   * Returns the termId of a term that is known not to be before termId
+   * from.  Looking up the stems of a term vector in order, each from the
+   * id of the previous stem, narrows each search.
+   *
+   * @param term The term's UTF-8 bytes.
+   * @param from The smallest termId that the term may have.
+   * @return The termId, or -1 if the term isn't in the field.
+   */
+  public int termId(BytesRef term, int from) {
+
+    int lo = from;
+    int hi = this.size - 1;
+
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      int c = compareTerm(mid, term);
+
+      if (c < 0)
+        lo = mid + 1;
+      else if (c > 0)
+        hi = mid - 1;
+      else
+        return mid;
+    }
+
+    return -1;
+  }
+
+  /**
+   * Returns the termId of a term.
+   *
+   * @param term The term.
+   * @return The termId, or -1 if the term isn't in the field.
+   */
+  public int termId(String term) {
+    return termId(new BytesRef(term));
+  }
+
+  /**
+   * Returns the df of a term.
+   *
+   * @param termId The termId.
+   */
+  public int df(int termId) {
+    return this.buffer.getInt(this.dfStart + 4 * termId);
+  }
+
+  /**
+   * Returns the ctf of a term.
+   *
+   * @param termId The termId.
+   */
+  public long ctf(int termId) {
+    return this.buffer.getLong(this.ctfStart + 8 * termId);
+  }
+
+  /**
+   * Returns the string of a term.
+   *
+   * @param termId The termId.
+   */
+  public String term(int termId) {
+
+    int start = this.buffer.getInt(this.offsetsStart + 4 * termId);
+    int end = this.buffer.getInt(this.offsetsStart + 4 * (termId + 1));
+
+    byte[] bytes = new byte[end - start];
+    for (int i = 0; i < bytes.length; i++)
+      bytes[i] = this.buffer.get(this.termsStart + start + i);
+
+    return new String(bytes, UTF8);
+  }
+
+  /**
+   * Compare a term in the lexicon to a key, as unsigned bytes, which is
+   * the order of the terms in the index.
+   */
+  private int compareTerm(int termId, BytesRef key) {
+
+    int start = this.buffer.getInt(this.offsetsStart + 4 * termId);
+    int end = this.buffer.getInt(this.offsetsStart + 4 * (termId + 1));
+    int length = Math.min(end - start, key.length);
+
+    for (int i = 0; i < length; i++) {
+      int a = this.buffer.get(this.termsStart + start + i) & 0xff;
+      int b = key.bytes[key.offset + i] & 0xff;
+      if (a != b)
+        return a - b;
+    }
+
+    return (end - start) - key.length;
+  }
+
+  /**
+   * Build the lexicon files of fields of an index.
+   *
+   * @param args The index path, the directory to write the files to,
+   * and the fields.
+   */
+  public static void main(String[] args) throws IOException {
+
+    if (args.length < 3) {
+      System.err.println("Usage:  java Lexicon indexPath lexiconDirectory field...");
+      System.exit(1);
+    }
+
+    IndexReader reader = DirectoryReader.open(FSDirectory.open(new File(args[0])));
+    for (int i = 2; i < args.length; i++)
+      new Lexicon(reader, args[i], args[1]);
+    reader.close();
+  }
+}
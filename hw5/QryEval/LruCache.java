@@ -0,0 +1,134 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LruCache is a thread-safe map with a memory budget.  Each value is
+ * put with an estimate of the bytes that it uses; when the total is
+ * over the budget, the least recently used values are evicted.  Values
+ * are shared between callers, so they must not be modified once they
+ * are cached.
+ */
+public class LruCache<K, V> {
+
+  private static class Entry<V> {
+    V value;
+    long bytes;
+
+    Entry(V value, long bytes) {
+      this.value = value;
+      this.bytes = bytes;
+    }
+  }
+
+  private final long maxBytes;
+  private long bytes = 0;
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+
+  // Access order, so the eldest entry is the least recently used.
+  private LinkedHashMap<K, Entry<V>> entries =
+    new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+
+  /**
+   * @param maxBytes The most memory that cached values may use.
+   */
+  public LruCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Returns a cached value, or null if there isn't one.
+   *
+   * @param key The cache key.
+   */
+  public synchronized V get(K key) {
+    Entry<V> entry = this.entries.get(key);
+
+    if (entry == null) {
+      this.misses++;
+      return null;
+    }
+
+    this.hits++;
+    return entry.value;
+  }
+
+  /**
+   * Returns a cached value, or null if there isn't one, without counting
+   * a miss.  For callers that only use the cache if the value happens to
+   * be there, and don't go on to fill it.
+   *
+   * @param key The cache key.
+   */
+  public synchronized V probe(K key) {
+    Entry<V> entry = this.entries.get(key);
+
+    if (entry == null)
+      return null;
+
+    this.hits++;
+    return entry.value;
+  }
+
+  /**
+   * Cache a value, evicting least recently used values until it fits.
+   * Values larger than the whole cache are not cached.
+   *
+   * @param key The cache key.
+   * @param value The value, which must not be modified afterwards.
+   * @param size The estimated memory that the key and value use.
+   */
+  public synchronized void put(K key, V value, long size) {
+
+    if (size > this.maxBytes)
+      return;
+
+    Entry<V> old = this.entries.remove(key);
+    if (old != null)
+      this.bytes -= old.bytes;
+
+    Iterator<Map.Entry<K, Entry<V>>> i = this.entries.entrySet().iterator();
+    while (this.bytes + size > this.maxBytes && i.hasNext()) {
+      this.bytes -= i.next().getValue().bytes;
+      i.remove();
+      this.evictions++;
+    }
+
+    this.entries.put(key, new Entry<V>(value, size));
+    this.bytes += size;
+  }
+
+  public synchronized long hits() {
+    return this.hits;
+  }
+
+  public synchronized long misses() {
+    return this.misses;
+  }
+
+  public synchronized long evictions() {
+    return this.evictions;
+  }
+
+  /**
+   * Returns the number of cached values.
+   */
+  public synchronized int size() {
+    return this.entries.size();
+  }
+
+  /**
+   * Returns the estimated memory that the cached values use.
+   */
+  public synchronized long bytes() {
+    return this.bytes;
+  }
+
+  public synchronized String toString() {
+    return this.hits + " hits, " + this.misses + " misses, "
+      + this.evictions + " evictions, " + this.entries.size()
+      + " entries, " + this.bytes + " bytes";
+  }
+}
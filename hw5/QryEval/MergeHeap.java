@@ -0,0 +1,127 @@
+/**
+ * MergeHeap merges k sorted streams of ints, such as the docids of
+ * several inverted lists or score lists, or the positions of several
+ * lists in one document. It is a binary min-heap of stream numbers,
+ * keyed by each stream's current value, so finding the next value costs
+ * O(log k) instead of a scan over all k streams.
+ *
+ * Streams with the same current value come out in stream order, so an
+ * operator that combines the scores of a document in argument order
+ * gets the same result as a loop over its arguments.
+ */
+public class MergeHeap {
+
+	private int[] streams;
+	private int[] values;
+	private int size = 0;
+
+	/**
+	 * @param capacity
+	 *            The largest number of streams.
+	 */
+	public MergeHeap(int capacity) {
+		this.streams = new int[capacity];
+		this.values = new int[capacity];
+	}
+
+	/**
+	 * Add a stream.
+	 *
+	 * @param stream
+	 *            The stream's number.
+	 * @param value
+	 *            The stream's current value.
+	 */
+	public void add(int stream, int value) {
+		int i = this.size++;
+		this.streams[i] = stream;
+		this.values[i] = value;
+		upHeap(i);
+	}
+
+	/**
+	 * Remove all of the streams.
+	 */
+	public void clear() {
+		this.size = 0;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return The number of the stream with the smallest current value.
+	 */
+	public int topStream() {
+		return this.streams[0];
+	}
+
+	/**
+	 * @return The smallest current value.
+	 */
+	public int topValue() {
+		return this.values[0];
+	}
+
+	/**
+	 * The top stream moved on; record its new current value.
+	 *
+	 * @param value
+	 *            The stream's new current value.
+	 */
+	public void updateTop(int value) {
+		this.values[0] = value;
+		downHeap(0);
+	}
+
+	/**
+	 * The top stream is exhausted; remove it.
+	 */
+	public void pop() {
+		this.size--;
+		if (this.size > 0) {
+			this.streams[0] = this.streams[this.size];
+			this.values[0] = this.values[this.size];
+			downHeap(0);
+		}
+	}
+
+	private boolean less(int i, int j) {
+		return (this.values[i] < this.values[j])
+				|| (this.values[i] == this.values[j] && this.streams[i] < this.streams[j]);
+	}
+
+	private void swap(int i, int j) {
+		int stream = this.streams[i];
+		int value = this.values[i];
+		this.streams[i] = this.streams[j];
+		this.values[i] = this.values[j];
+		this.streams[j] = stream;
+		this.values[j] = value;
+	}
+
+	private void upHeap(int i) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!less(i, parent))
+				break;
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void downHeap(int i) {
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= this.size)
+				break;
+			if (child + 1 < this.size && less(child + 1, child))
+				child++;
+			if (!less(child, i))
+				break;
+			swap(i, child);
+			i = child;
+		}
+	}
+}
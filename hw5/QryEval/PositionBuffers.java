@@ -0,0 +1,230 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.store.FSDirectory;
+
+/**
+ * PositionBuffers is scratch space for the proximity operators (#NEAR
+ * and #WINDOW): the positions of each argument in the current document,
+ * a pointer into each argument's positions, and the matched positions.
+ * The arrays grow as needed and are reused from one document to the
+ * next, so matching a document allocates nothing.
+ *
+ * Buffers are pooled per thread. Each evaluation acquires its own and
+ * releases them when it is done, so nested proximity operators don't
+ * share buffers. Buffers that aren't released (because evaluation threw
+ * an exception) are just garbage collected.
+ *
+ * The memory that proximity operators allocate, per query and per
+ * candidate document, can be measured with:
+ *
+ *   java PositionBuffers indexPath query...
+ */
+public class PositionBuffers {
+
+	private static final ThreadLocal<ArrayDeque<PositionBuffers>> POOL = new ThreadLocal<ArrayDeque<PositionBuffers>>() {
+		protected ArrayDeque<PositionBuffers> initialValue() {
+			return new ArrayDeque<PositionBuffers>();
+		}
+	};
+
+	// positions[i][0..lengths[i]) are argument i's positions
+	public int[][] positions = new int[0][];
+	public int[] lengths = new int[0];
+
+	// pointers[i] is the next position of argument i to compare
+	public int[] pointers = new int[0];
+
+	// The positions that matched
+	public int[] matches = new int[16];
+
+	/**
+	 * Take buffers from this thread's pool, or create them.
+	 *
+	 * @param numArgs
+	 *            The number of arguments of the operator.
+	 * @return The buffers.
+	 */
+	public static PositionBuffers acquire(int numArgs) {
+		PositionBuffers buffers = POOL.get().poll();
+
+		if (buffers == null)
+			buffers = new PositionBuffers();
+
+		if (buffers.lengths.length < numArgs) {
+			int[][] positions = new int[numArgs][];
+			for (int i = 0; i < numArgs; i++)
+				positions[i] = (i < buffers.positions.length) ? buffers.positions[i]
+						: new int[16];
+			buffers.positions = positions;
+			buffers.lengths = new int[numArgs];
+			buffers.pointers = new int[numArgs];
+		}
+		return buffers;
+	}
+
+	/**
+	 * Return buffers to this thread's pool.
+	 *
+	 * @param buffers
+	 *            The buffers, which must not be used afterwards.
+	 */
+	public static void release(PositionBuffers buffers) {
+		POOL.get().push(buffers);
+	}
+
+	/**
+	 * Read the positions of an argument in the cursor's current document.
+	 *
+	 * @param arg
+	 *            The argument's index.
+	 * @param cursor
+	 *            The argument's cursor.
+	 * @throws IOException
+	 */
+	public void readPositions(int arg, PostingsCursor cursor)
+			throws IOException {
+		int tf = cursor.freq();
+
+		if (this.positions[arg].length < tf)
+			this.positions[arg] = new int[Math.max(tf,
+					this.positions[arg].length * 2)];
+
+		int[] p = this.positions[arg];
+		for (int j = 0; j < tf; j++)
+			p[j] = cursor.nextPosition();
+		this.lengths[arg] = tf;
+	}
+
+	/**
+	 * Make room for at least n matched positions.
+	 *
+	 * @param n
+	 *            The number of positions.
+	 * @return The matches array.
+	 */
+	public int[] matches(int n) {
+		if (this.matches.length < n)
+			this.matches = new int[Math.max(n, this.matches.length * 2)];
+		return this.matches;
+	}
+
+	/**
+	 * Measure the memory that #NEAR and #WINDOW queries allocate, with
+	 * BM25. Each query is evaluated 200 times to warm up and 200 times
+	 * while its thread's allocation is measured. The fixed cost of a
+	 * query (planning it and opening its arguments' postings) is measured
+	 * the same way and subtracted, which leaves what matching the
+	 * candidate documents (those that contain every argument) allocates,
+	 * including the result. If matching allocated per candidate, the
+	 * remainder would grow with the number of candidates.
+	 *
+	 * @param args
+	 *            The index path and the queries.
+	 */
+	public static void main(String[] args) throws IOException {
+
+		if (args.length < 2) {
+			System.err.println("Usage:  java PositionBuffers indexPath query...");
+			System.exit(1);
+		}
+
+		QryEval.READER = DirectoryReader.open(FSDirectory.open(new File(
+				args[0])));
+		QryEval.stats = new CollectionStats(QryEval.READER);
+		QryEval.dls = new DocLengthStore(QryEval.READER);
+		QryEval.docIdMap = new DocIdMap(QryEval.READER);
+
+		final RetrievalModel r = new RetrievalModelBM25(1.2, 0.75, 0);
+		final int n = 200;
+
+		for (int a = 1; a < args.length; a++) {
+			final Qryop q = QryEval.parseQuery(args[a]);
+			if (!(q instanceof QryopIlNear || q instanceof QryopIlWindow)) {
+				System.err.println("Not a #NEAR or #WINDOW query: " + args[a]);
+				continue;
+			}
+
+			long evaluate = allocated(n, new Runnable() {
+				public void run() {
+					try {
+						q.evaluate(r);
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			});
+			long open = allocated(n, new Runnable() {
+				public void run() {
+					try {
+						QueryPlanner.conjunction(q);
+						for (Qryop arg : q.args)
+							((QryopIl) arg).cursor(r);
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			});
+
+			System.out.printf("%s: %d candidates, %d matches, %d bytes per "
+					+ "query, %d fixed, %d matching%n", args[a],
+					candidates(q, r), q.evaluate(r).invertedList.df, evaluate,
+					open, evaluate - open);
+		}
+		QryEval.READER.close();
+	}
+
+	/**
+	 * The bytes that this thread allocates per run of a task, after
+	 * warming it up.
+	 */
+	private static long allocated(int n, Runnable task) {
+		com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long id = Thread.currentThread().getId();
+
+		for (int i = 0; i < n; i++)
+			task.run();
+		long before = mx.getThreadAllocatedBytes(id);
+		for (int i = 0; i < n; i++)
+			task.run();
+		return (mx.getThreadAllocatedBytes(id) - before) / n;
+	}
+
+	/**
+	 * The number of documents that contain every argument of a proximity
+	 * operator.
+	 */
+	private static int candidates(Qryop q, RetrievalModel r)
+			throws IOException {
+		int count = 0;
+		int argSize = q.args.size();
+		PostingsCursor[] cursors = new PostingsCursor[argSize];
+
+		for (int i = 0; i < argSize; i++)
+			cursors[i] = ((QryopIl) q.args.get(i)).cursor(r);
+
+		int docid = cursors[0].nextDoc();
+		while (docid != PostingsCursor.NO_MORE_DOCS) {
+			int i = 1;
+			for (; i < argSize; i++) {
+				int d = cursors[i].docID();
+				if (d < docid)
+					d = cursors[i].advance(docid);
+				if (d != docid) {
+					docid = (d == PostingsCursor.NO_MORE_DOCS) ? d
+							: cursors[0].advance(d);
+					break;
+				}
+			}
+			if (i == argSize) {
+				count++;
+				docid = cursors[0].nextDoc();
+			}
+		}
+		return count;
+	}
+}
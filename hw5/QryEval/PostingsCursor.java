@@ -0,0 +1,232 @@
+/**
+ *  A PostingsCursor is a pull-based view of an inverted list.  It
+ *  visits postings one document at a time, in docid order, and can
+ *  skip forward to a target document without visiting the postings
+ *  in between.  Query operators that only need the documents that
+ *  match every argument use cursors so that long inverted lists are
+ *  not copied into an InvList just to be scanned past.
+ *
+ *  Cursors over terms read Lucene's postings directly, so advance()
+ *  uses Lucene's skip lists.  Cursors over other query operators wrap
+ *  the InvList that the operator produces.
+ */
+
+import java.io.*;
+
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.*;
+import org.apache.lucene.util.*;
+
+public abstract class PostingsCursor {
+
+	//  docID() returns this value after the last posting is passed.
+
+	public static final int NO_MORE_DOCS = DocIdSetIterator.NO_MORE_DOCS;
+
+	//  The field that the inverted list is from.
+
+	public String field;
+
+	//  The total number of occurrences in the inverted list (ctf).
+
+	public long ctf;
+
+	/**
+	 *  The document that the cursor is on.  -1 before the first call
+	 *  to nextDoc or advance, and NO_MORE_DOCS after the last posting.
+	 *  @return The internal document id.
+	 */
+	public abstract int docID();
+
+	/**
+	 *  Move to the next document.
+	 *  @return The new document id, or NO_MORE_DOCS.
+	 *  @throws IOException
+	 */
+	public abstract int nextDoc() throws IOException;
+
+	/**
+	 *  Move to the first document whose id is at least target.  The
+	 *  target must be greater than the current document id.
+	 *  @param target The document id to move to.
+	 *  @return The new document id, or NO_MORE_DOCS.
+	 *  @throws IOException
+	 */
+	public abstract int advance(int target) throws IOException;
+
+	/**
+	 *  The term frequency in the current document.
+	 *  @return The term frequency.
+	 *  @throws IOException
+	 */
+	public abstract int freq() throws IOException;
+
+	/**
+	 *  The next position in the current document.  It may be called
+	 *  at most freq() times per document.
+	 *  @return The position.
+	 *  @throws IOException
+	 */
+	public abstract int nextPosition() throws IOException;
+
+	/**
+	 *  The number of documents in the inverted list.  Operators use
+	 *  this to decide which cursor should lead an intersection.
+	 *  @return The document frequency.
+	 */
+	public abstract int cost();
+
+	/**
+	 *  Create a cursor over the postings of a term.
+	 *  @param termString The processed (stemmed, lower-cased, etc) term string.
+	 *  @param fieldString The field that the term occurs in.
+	 *  @return The cursor.
+	 *  @throws IOException
+	 */
+	public static PostingsCursor forTerm(String termString, String fieldString)
+			throws IOException {
+
+		BytesRef termBytes = new BytesRef(termString);
+		Term term = new Term(fieldString, termBytes);
+		int df = QryEval.READER.docFreq(term);
+
+		if (df < 1)
+			return forInvList(new InvList(fieldString));
+
+		DocsAndPositionsEnum iList = MultiFields.getTermPositionsEnum(
+				QryEval.READER, MultiFields.getLiveDocs(QryEval.READER),
+				fieldString, termBytes);
+
+		return new TermCursor(iList, fieldString, df,
+				QryEval.READER.totalTermFreq(term));
+	}
+
+	/**
+	 *  Create a cursor over an inverted list that is already in memory.
+	 *  @param invList The inverted list.
+	 *  @return The cursor.
+	 */
+	public static PostingsCursor forInvList(InvList invList) {
+		return new InvListCursor(invList);
+	}
+
+	/**
+	 *  A cursor that reads a term's postings from the index.
+	 */
+	private static class TermCursor extends PostingsCursor {
+
+		private DocsAndPositionsEnum iList;
+		private int df;
+
+		private TermCursor(DocsAndPositionsEnum iList, String field, int df,
+				long ctf) {
+			this.iList = iList;
+			this.field = field;
+			this.df = df;
+			this.ctf = ctf;
+		}
+
+		public int docID() {
+			return this.iList.docID();
+		}
+
+		public int nextDoc() throws IOException {
+			return this.iList.nextDoc();
+		}
+
+		public int advance(int target) throws IOException {
+			return this.iList.advance(target);
+		}
+
+		public int freq() throws IOException {
+			return this.iList.freq();
+		}
+
+		public int nextPosition() throws IOException {
+			return this.iList.nextPosition();
+		}
+
+		public int cost() {
+			return this.df;
+		}
+	}
+
+	/**
+	 *  A cursor over an InvList.
+	 */
+	private static class InvListCursor extends PostingsCursor {
+
+		private InvList invList;
+		private int nextDoc = -1; // The index of the current posting
+		private int nextPos = 0; // The index of the next position
+
+		private InvListCursor(InvList invList) {
+			this.invList = invList;
+			this.field = invList.field;
+			this.ctf = invList.ctf;
+		}
+
+		public int docID() {
+			if (this.nextDoc < 0)
+				return -1;
+			else if (this.nextDoc >= this.invList.df)
+				return NO_MORE_DOCS;
+			return this.invList.getDocid(this.nextDoc);
+		}
+
+		public int nextDoc() {
+			if (this.nextDoc < this.invList.df)
+				this.nextDoc++;
+			this.nextPos = 0;
+			return docID();
+		}
+
+		/**
+		 *  Gallop to the target: probe postings 1, 2, 4, ... ahead
+		 *  until one is at or past the target, then binary search the
+		 *  last gap.  The cost is logarithmic in the number of postings
+		 *  skipped, instead of linear.
+		 */
+		public int advance(int target) {
+			int df = this.invList.df;
+
+			if (this.nextDoc >= df)
+				return NO_MORE_DOCS;
+
+			// The answer is in (lo, hi]; lo is known to be too small.
+			int lo = this.nextDoc;
+			int step = 1;
+			int hi = lo + step;
+
+			while (hi < df && this.invList.getDocid(hi) < target) {
+				lo = hi;
+				step <<= 1;
+				hi = (step < df - lo) ? lo + step : df;
+			}
+
+			while (hi - lo > 1) {
+				int mid = (lo + hi) >>> 1;
+				if (this.invList.getDocid(mid) < target)
+					lo = mid;
+				else
+					hi = mid;
+			}
+
+			this.nextDoc = hi;
+			this.nextPos = 0;
+			return docID();
+		}
+
+		public int freq() {
+			return this.invList.getTf(this.nextDoc);
+		}
+
+		public int nextPosition() {
+			return this.invList.getPosition(this.nextDoc, this.nextPos++);
+		}
+
+		public int cost() {
+			return this.invList.df;
+		}
+	}
+}
@@ -28,6 +28,12 @@ import java.util.Map;
 import java.util.Scanner;
 import java.util.Stack;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Pattern;
 
 import org.apache.lucene.analysis.Analyzer.TokenStreamComponents;
@@ -56,8 +62,21 @@ public class QryEval {
 
 	public static IndexReader READER;
 	public static DocLengthStore dls;
+	public static DocIdMap docIdMap;
+	public static CollectionStats stats;
 	public static boolean isBM25 = false;
 	public static boolean isIndri = false;
+	public static boolean isDaat = false;
+	public static boolean isWand = false;
+	public static boolean isExplain = false;
+	public static QueryCache queryCache = null;
+	public static InvListCache invListCache = null;
+	public static TermStatsCache termStatsCache = null;
+	public static ExecutorService feedbackPool = null;
+
+	// The number of documents that are returned for each query.
+
+	static final int MAX_RESULTS = 100;
 
 	// Create and configure an English analyzer that will be used for
 	// query parsing.
@@ -110,9 +129,66 @@ public class QryEval {
 			System.exit(1);
 		}
 
-		dls = new DocLengthStore(READER);
+		stats = new CollectionStats(READER);
+
+		// docLengthPath keeps the document lengths in files, so that they
+		// are read from the norms once per index instead of once per run
+		dls = new DocLengthStore(READER, params.get("docLengthPath"));
+
+		// docIdMapPath keeps the document id map in a file, so that it is
+		// built once per index instead of once per run
+		docIdMap = new DocIdMap(READER, params.get("docIdMapPath"));
+
 		RetrievalModel model = null;
 
+		// evaluationMode=daat scores score-list queries document-at-a-time
+		if (params.containsKey("evaluationMode"))
+			isDaat = params.get("evaluationMode").equalsIgnoreCase("daat");
+
+		// BM25:wand=true evaluates BM25 #SUM queries for the top documents
+		// only, skipping documents that can't make the top MAX_RESULTS
+		if (params.containsKey("BM25:wand"))
+			isWand = Boolean.parseBoolean(params.get("BM25:wand"));
+
+		// explain=true prints the plan of each query's conjunctions (the
+		// estimated df and ctf and the intersection strategy) to stderr
+		if (params.containsKey("explain"))
+			isExplain = Boolean.parseBoolean(params.get("explain"));
+
+		// queryCacheSize=<megabytes> caches the results of queries and
+		// subqueries, so that repeated ones are evaluated once per run
+		if (params.containsKey("queryCacheSize"))
+			queryCache = new QueryCache(megabytes(params.get("queryCacheSize")));
+
+		// invListCacheSize=<megabytes> caches the inverted lists of terms
+		// whose df is at least invListCacheMinDf (default 16), across all
+		// queries
+		if (params.containsKey("invListCacheSize")) {
+			int minDf = 16;
+			if (params.containsKey("invListCacheMinDf"))
+				minDf = Integer.parseInt(params.get("invListCacheMinDf"));
+			invListCache = new InvListCache(
+					megabytes(params.get("invListCacheSize")), minDf);
+		}
+
+		// termStatsCacheSize=<megabytes> caches the df and ctf of terms that
+		// are looked up, and termStatsPreload=<field>,... reads them for
+		// every term of the fields when the index is opened, giving the
+		// terms ids; lexiconPath=<directory> keeps the preloaded fields
+		// in files, so that they are built once per index
+		if (params.containsKey("termStatsCacheSize")
+				|| params.containsKey("termStatsPreload")) {
+			long size = 0;
+			if (params.containsKey("termStatsCacheSize"))
+				size = megabytes(params.get("termStatsCacheSize"));
+			termStatsCache = new TermStatsCache(size,
+					params.get("lexiconPath"));
+
+			if (params.containsKey("termStatsPreload"))
+				for (String field : params.get("termStatsPreload").split(","))
+					termStatsCache.preload(field.trim());
+		}
+
 		if (params.get("retrievalAlgorithm").equals("UnrankedBoolean"))
 			model = new RetrievalModelUnrankedBoolean();
 		else if (params.get("retrievalAlgorithm").equals("RankedBoolean"))
@@ -161,6 +237,10 @@ public class QryEval {
 				int intmu = Integer.parseInt(mu);
 				double doublelambda = Double.parseDouble(lambda);
 				model = new RetrievalModelIndri(intmu, doublelambda);
+
+				// Indri:logSpace=true scores queries in log space
+				if (params.containsKey("Indri:logSpace"))
+					model.setParameter("logSpace", params.get("Indri:logSpace"));
 			}
 		} else if (params.get("retrievalAlgorithm").equals("letor")) {
 			String mu = params.get("Indri:mu");
@@ -407,25 +487,19 @@ public class QryEval {
 				}
 				testQueryContent = "#SUM(" + testQueryContent + ")";
 				qTree = parseQuery(testQueryContent);
-				QryResult result = qTree.evaluate(bm25Model);
-
-				// Sort result
-				HashMap<Integer, String> extIDHM = null;
-				ExtDocId extDocId;
-				if (result != null) {
-					extDocId = new ExtDocId(result);
-					extDocId.store();
-					extIDHM = extDocId.getHM();
-					result.sortResult(extIDHM);
-				}
+				QryResult result = evaluate(qTree, bm25Model);
+
+				// Rank result
+				TopKCollector.ScoredDoc[] topDocs = TopKCollector.topDocs(
+						result.docScores, MAX_RESULTS);
 
 				// Store the top 100 doc internal ID into an arraylist
 				ArrayList<Integer> svmIntDocID = new ArrayList<Integer>();
-				int docNum = Math.min(100, result.docScores.scores.size());
+				int docNum = topDocs.length;
 				//System.err.println(docNum);
 				qidDocNumHM.put(testQueryID, docNum); //put qid and docNum into qidDocNumHM
 				for (int i = 0; i < docNum; i++) {
-					svmIntDocID.add(result.docScores.getDocid(i));
+					svmIntDocID.add(topDocs[i].docid);
 				}
 				svmIntDocIDList.add(svmIntDocID);
 
@@ -446,7 +520,7 @@ public class QryEval {
 				
 				// Write Top 100 FV list
 				for (int i = 0; i < docNum; i++) {
-					String extId = getExternalDocid(svmIntDocID.get(i));
+					String extId = topDocs[i].externalId;
 					StringBuilder strBuilder = new StringBuilder();
 					strBuilder.append(0).append(" qid:").append(testQueryID)
 							.append(" ").append(normalizedFvList.get(i))
@@ -609,6 +683,60 @@ public class QryEval {
 									+ fbDocs);
 				}
 
+				// fbThreads=n reads the feedback documents' term vectors
+				// on a pool of n threads
+				if (params.containsKey("fbThreads")) {
+					int fbThreads = Integer.parseInt(params.get("fbThreads"));
+					if (fbThreads < 1)
+						System.out
+								.println("Error: fbThreads should be greater than 0. Given value is:"
+										+ fbThreads);
+					else if (fbThreads > 1)
+						feedbackPool = Executors.newFixedThreadPool(fbThreads,
+								new ThreadFactory() {
+									public Thread newThread(Runnable r) {
+										Thread t = new Thread(r);
+										t.setDaemon(true);
+										return t;
+									}
+								});
+				}
+
+			}
+
+			// threads=n evaluates n queries at a time. The results are
+			// still written in query file order (or per connection, in
+			// server mode).
+			int threads = 1;
+			if (params.containsKey("threads"))
+				threads = Integer.parseInt(params.get("threads"));
+			if (threads < 1) {
+				System.out
+						.println("Error: threads should be greater than 0. Given value is:"
+								+ threads);
+				threads = 1;
+			}
+
+			// The settings that every query is evaluated with
+			QueryTask settings = new QueryTask();
+			settings.model = model;
+			if (fb) {
+				settings.fb = true;
+				settings.fbExpansionQueryFile = fbExpansionQueryFile;
+				settings.fbDocs = fbDocs;
+				settings.fbTerms = fbTerms;
+				settings.fbMu = fbMu;
+				settings.fbOrigWeight = fbOrigWeight;
+			}
+
+			// serverPort=n answers queries from local connections instead
+			// of reading queryFilePath, keeping the index open between them
+			if (params.containsKey("serverPort")) {
+				QueryServer server = new QueryServer(
+						Integer.parseInt(params.get("serverPort")), threads,
+						settings);
+				server.run();
+				return;
 			}
 
 			StringBuffer printStr = new StringBuffer();
@@ -659,57 +787,49 @@ public class QryEval {
 			FileReader fileReader = new FileReader(params.get("queryFilePath"));
 			BufferedReader queryReader = new BufferedReader(fileReader);
 
-			Qryop queryTree;
 			String curLine;
-			String queryID;
-			String queryContent;
 			StringBuffer expansionOutputBuffer = new StringBuffer();
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			List<QueryTask> tasks = new ArrayList<QueryTask>();
+			List<Future<StringBuffer>> futures = new ArrayList<Future<StringBuffer>>();
 
 			int index = 0;
-			QryResult fbInitialResult;
 			while ((curLine = queryReader.readLine()) != null) {
 				int colonIndex = curLine.indexOf(':');
-				queryID = curLine.substring(0, colonIndex);
-				String content = curLine.substring(colonIndex + 1);
-
-				// Add a default operator to avoid unprocessed token
-				if (isBM25) {
-					queryContent = "#SUM(" + content + ")";
-				} else if (isIndri)
-					queryContent = "#AND(" + content + ")";
-				else
-					queryContent = "#OR(" + content + ")";
-
-				queryTree = parseQuery(queryContent);
-
-				// QryopSlScore opScore = new QryopSlScore(queryTree);
-
-				StringBuffer strBuffer = new StringBuffer();
-				QryResult result = queryTree.evaluate(model);
+				QueryTask task = new QueryTask(settings);
+				task.queryID = curLine.substring(0, colonIndex);
+				task.content = curLine.substring(colonIndex + 1);
 
 				if (fb && fbInitial) {
-					fbInitialResult = resultList.get(index);
+					task.fbInitialResult = resultList.get(index);
 					index++;
-					QryResult fbResult = expansion(fbInitialResult, content,
-							model, queryID, fbExpansionQueryFile, fbDocs,
-							fbTerms, fbMu, fbOrigWeight, expansionOutputBuffer);
-					strBuffer = printResults(queryID, fbResult);
 				}
 
-				else if (fb) {
-					QryResult fbResult = expansion(result, content, model,
-							queryID, fbExpansionQueryFile, fbDocs, fbTerms,
-							fbMu, fbOrigWeight, expansionOutputBuffer);
-					strBuffer = printResults(queryID, fbResult);
-				} else
-					strBuffer = printResults(queryID, result);
-
-				System.out.println(strBuffer);
-				printStr.append(strBuffer);
+				tasks.add(task);
+				futures.add(pool.submit(task));
 			}
 
 			queryReader.close();
 
+			try {
+				for (int i = 0; i < tasks.size(); i++) {
+					StringBuffer strBuffer;
+					try {
+						strBuffer = futures.get(i).get();
+					} catch (ExecutionException e) {
+						if (e.getCause() instanceof Exception)
+							throw (Exception) e.getCause();
+						throw e;
+					}
+
+					System.out.println(strBuffer);
+					printStr.append(strBuffer);
+					expansionOutputBuffer.append(tasks.get(i).expansionOutput);
+				}
+			} finally {
+				pool.shutdownNow();
+			}
+
 			/* write the output to the file given the output path */
 			BufferedWriter bufferWriter = null;
 
@@ -758,19 +878,106 @@ public class QryEval {
 		 * System.out.println(tv.totalStemFreq(10)); // get its ctf
 		 */
 
+		if (queryCache != null)
+			System.err.println(queryCache);
+		if (invListCache != null)
+			System.err.println(invListCache);
+		if (termStatsCache != null)
+			System.err.println(termStatsCache);
+		System.err.println(QueryOptimizer.report());
+
 		printMemoryUsage(false);
 
 	}
 
+	/**
+	 * The evaluation of one query from the query file. Tasks share the
+	 * index, the retrieval model and the static settings, which are set up
+	 * before any task runs and are only read afterwards. Everything that a
+	 * query changes (its query tree, results and expanded query) belongs to
+	 * its task, so tasks can run on different threads.
+	 */
+	static class QueryTask implements Callable<StringBuffer> {
+		String queryID;
+		String content;
+		RetrievalModel model;
+
+		boolean fb = false;
+		QryResult fbInitialResult;
+		String fbExpansionQueryFile;
+		Integer fbDocs;
+		Integer fbTerms;
+		Integer fbMu;
+		Double fbOrigWeight;
+
+		// The expanded query, if fb is set
+		StringBuffer expansionOutput = new StringBuffer();
+
+		QueryTask() {
+		}
+
+		/**
+		 * A task with the same model and feedback settings as another.
+		 * 
+		 * @param settings
+		 *            The task to copy the settings from.
+		 */
+		QueryTask(QueryTask settings) {
+			this.model = settings.model;
+			this.fb = settings.fb;
+			this.fbExpansionQueryFile = settings.fbExpansionQueryFile;
+			this.fbDocs = settings.fbDocs;
+			this.fbTerms = settings.fbTerms;
+			this.fbMu = settings.fbMu;
+			this.fbOrigWeight = settings.fbOrigWeight;
+		}
+
+		/**
+		 * Evaluate the query, with pseudo relevance feedback if fb is set.
+		 * 
+		 * @return The query results in trec_eval format.
+		 * @throws Exception
+		 */
+		public StringBuffer call() throws Exception {
+			String queryContent;
+
+			// Add a default operator to avoid unprocessed token
+			if (isBM25) {
+				queryContent = "#SUM(" + content + ")";
+			} else if (isIndri)
+				queryContent = "#AND(" + content + ")";
+			else
+				queryContent = "#OR(" + content + ")";
+
+			if (fb && fbInitialResult != null) {
+				QryResult fbResult = expansion(fbInitialResult, content,
+						model, queryID, fbExpansionQueryFile, fbDocs, fbTerms,
+						fbMu, fbOrigWeight, expansionOutput);
+				return printResults(queryID, fbResult);
+			}
+
+			Qryop queryTree = parseQuery(queryContent);
+			if (isExplain)
+				System.err.print("Plan for query " + queryID + ":\n"
+						+ QueryPlanner.explain(queryTree));
+			QryResult result = evaluate(queryTree, model);
+
+			if (fb) {
+				QryResult fbResult = expansion(result, content, model,
+						queryID, fbExpansionQueryFile, fbDocs, fbTerms, fbMu,
+						fbOrigWeight, expansionOutput);
+				return printResults(queryID, fbResult);
+			}
+			return printResults(queryID, result);
+		}
+	}
+
 	static QryResult expansion(QryResult result, String origQuery,
 			RetrievalModel model, String queryID, String fbExpansionQueryFile,
 			int fbDocs, int fbTerms, int fbMu, double fbOrigWeight,
 			StringBuffer expansionOutputBuffer) throws Exception {
 
-		HashMap<String, Double> termScoreHM = new HashMap<String, Double>();
 		QryResult fbResult = new QryResult();
-		HashMap<Integer, String> extIDHM = null;
-		ExtDocId extDocId;
 		int scoreListSize = result.docScores.scores.size();
 
 		/*
@@ -784,146 +991,22 @@ public class QryEval {
 		}
 
 		/*
-		 * put all the results of the original query into HashMap and sort by
-		 * score
-		 */
-		extDocId = new ExtDocId(result);
-		extDocId.store();
-		extIDHM = extDocId.getHM();
-		result.sortResult(extIDHM);
-
-		double ctotallen = READER.getSumTotalTermFreq("body");
-
-		/* put all the term into term-score HashMap */
-		for (int i = 0; (i < fbDocs) && (i < scoreListSize); i++) {
-
-			String externalId = extIDHM.get(result.docScores.getDocid(i));
-			int docid = getInternalDocid(externalId);
-			TermVector tv = new TermVector(docid, "body");
-			int stemlen = tv.stemsLength();
-
-			for (int j = 1; j < stemlen; j++) {
-				String term = tv.stemString(j);
-				if (term.contains(".") || term.contains(",")) {
-					continue;
-				}
-
-				if (!termScoreHM.containsKey(term))
-					termScoreHM.put(term, 0.0);
-			}
-		}
-
-		/*
-		 * Initial flagHM, set false to a term when the default scores is not
-		 * added
-		 */
-		HashMap<String, Boolean> flagHM = new HashMap<String, Boolean>();
-		List<Map.Entry<String, Double>> listHM = new LinkedList<Map.Entry<String, Double>>(
-				termScoreHM.entrySet());
-		int listSize = listHM.size();
-
-		for (int index = 0; index < listSize; index++) {
-			String term = listHM.get(index).getKey();
-			flagHM.put(term, false);
-		}
-
-		/*
-		 * get all the doclen and store them into a list so that we can use it
-		 * to calculate default scores later
-		 */
-		int defaultTimes = Math.min(fbDocs, scoreListSize);
-		List<Long> doclenList = new LinkedList<Long>();
-		List<Double> docScoreList = new LinkedList<Double>();
-
-		for (int i = 0; i < defaultTimes; i++) {
-			String externalId = extIDHM.get(result.docScores.getDocid(i));
-			int docid = getInternalDocid(externalId);
-			long doclen = dls.getDocLength("body", docid);
-			double docScore = result.docScores.getDocidScore(i);
-			doclenList.add(doclen);
-			docScoreList.add(docScore);
-		}
-
-		/*
-		 * update score for each term. Added all the default scores when a
-		 * document contains a term and then set the flagHM to be true
+		 * rank the results of the original query and keep the top fbDocs
 		 */
-		for (int i = 0; i < defaultTimes; i++) {
-
-			String externalId = extIDHM.get(result.docScores.getDocid(i));
-			int docid = getInternalDocid(externalId);
-			double docScore = result.docScores.getDocidScore(i);// ?
-
-			TermVector tv = new TermVector(docid, "body");
-			int stemlen = tv.stemsLength();
-
-			long doclen = dls.getDocLength("body", docid);
-
-			for (int j = 1; j < stemlen; j++) {
-				String term = tv.stemString(j);
-				if (term.contains(".") || term.contains(",")) {
-					continue;
-				}
-				int tf = tv.stemFreq(j);
-				long ctf = tv.totalStemFreq(j);
-
-				double ptc = (double) ctf / (double) ctotallen;
-				double ptd_contain = ((double) tf)
-						/ (double) ((double) doclen + fbMu);
-
-				double idf = (double) (Math.log(1 / ptc));
-
-				double termScore = ptd_contain * docScore * idf;
-				double termScoreInHash = termScoreHM.get(term);
-				termScoreInHash = termScoreInHash + termScore;
-
-				if (flagHM.get(term) == false) {
-
-					double ptd_default;
-					double defaultScore = 0.0;
-					long doclen_k;
-					double docScore_k;
-					for (int k = 0; k < defaultTimes; k++) {
-						doclen_k = doclenList.get(k);
-						docScore_k = docScoreList.get(k);
-						ptd_default = ((double) fbMu * ptc)
-								/ ((double) doclen_k + (double) fbMu);
-						defaultScore += ptd_default * docScore_k * idf;
-					}
-
-					termScoreInHash += defaultScore;
-					flagHM.put(term, true);
-				}
-				termScoreHM.put(term, termScoreInHash);
-
-			}
-
+		TopKCollector.ScoredDoc[] topDocs = TopKCollector.topDocs(
+				result.docScores, fbDocs);
+
+		/* learn the expansion terms from the top documents */
+		int[] docids = new int[topDocs.length];
+		double[] docScores = new double[topDocs.length];
+		for (int i = 0; i < topDocs.length; i++) {
+			docids[i] = topDocs[i].docid;
+			docScores[i] = docScore(result, topDocs[i]);
 		}
 
-		/*
-		 * Sort termScoreHM and get the first fbTerms term to form the learned
-		 * Query
-		 */
-		List<Map.Entry<String, Double>> list = new LinkedList<Map.Entry<String, Double>>(
-				termScoreHM.entrySet());
-
-		Collections.sort(list, new Comparator<Map.Entry<String, Double>>() {
-			public int compare(Map.Entry<String, Double> o1,
-					Map.Entry<String, Double> o2) {
-				return (o2.getValue()).compareTo(o1.getValue());
-			}
-		});
-
-		StringBuffer learnedQuery = new StringBuffer();
-		learnedQuery.append("#WAND (");
-		for (int i = (fbTerms - 1); i >= 0; i--) {
-			String term = list.get(i).getKey();
-			double score = list.get(i).getValue();
-			String formatScore = String.format("%.4f", score);
-			learnedQuery.append(formatScore).append(" ").append(term)
-					.append(" ");
-		}
-		learnedQuery.append(")");
+		RelevanceFeedback feedback = new RelevanceFeedback(fbMu);
+		feedback.addDocuments(docids, docScores);
+		String learnedQuery = feedback.learnedQuery(fbTerms);
 
 		/* form the new query and generate results */
 		double learnedWeight = 1 - (double) fbOrigWeight;
@@ -939,7 +1022,10 @@ public class QryEval {
 			expandedQuery = "#OR(" + expandedQuery + ")";
 
 		Qryop expandedQueryTree = parseQuery(expandedQuery);
-		fbResult = expandedQueryTree.evaluate(model);
+		if (isExplain)
+			System.err.print("Plan for expanded query " + queryID + ":\n"
+					+ QueryPlanner.explain(expandedQueryTree));
+		fbResult = evaluate(expandedQueryTree, model);
 
 		/* write the expanded query to output file */
 		String expansionOutput = queryID + ": " + learnedQuery;
@@ -950,6 +1036,111 @@ public class QryEval {
 		return fbResult;
 	}
 
+	/**
+	 * The probability of a feedback document, converting it from log space
+	 * if necessary.
+	 */
+	private static double docScore(QryResult result, TopKCollector.ScoredDoc doc) {
+		if (result.docScores.logSpace)
+			return Math.exp(doc.score);
+		return doc.score;
+	}
+
+	/**
+	 * Evaluate a query, document-at-a-time if evaluationMode=daat and the
+	 * query produces a score list, otherwise term-at-a-time. If BM25:wand
+	 * is set, BM25 #SUM queries return only the top MAX_RESULTS documents
+	 * (and any ties). If Indri:logSpace is set, Indri queries are scored in
+	 * log space.
+	 * 
+	 * @param q
+	 *            The query tree.
+	 * @param r
+	 *            A retrieval model that controls how the query is evaluated.
+	 * @return The result of evaluating the query.
+	 * @throws IOException
+	 */
+	static QryResult evaluate(Qryop q, RetrievalModel r) throws IOException {
+		if (queryCache == null)
+			return evaluateQuery(q, r);
+
+		// A query can be evaluated differently than the same operator
+		// as an argument (e.g. WAND keeps only the top documents), so
+		// queries have their own keys.
+		String key = "query " + QueryCache.key(q, r);
+		QryResult result = queryCache.get(key);
+
+		if (result == null) {
+			result = evaluateQuery(q, r);
+			queryCache.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Evaluate a query without the query cache.
+	 */
+	private static QryResult evaluateQuery(Qryop q, RetrievalModel r)
+			throws IOException {
+		QueryOptimizer.eliminateCommonSubexpressions(q);
+
+		if (isWand && q instanceof QryopSlSum
+				&& r instanceof RetrievalModelBM25)
+			return ((QryopSlSum) q).evaluateWand(r, MAX_RESULTS);
+		if (r instanceof RetrievalModelIndri
+				&& ((RetrievalModelIndri) r).isLogSpace()
+				&& IndriLogEvaluator.canEvaluate(q))
+			return IndriLogEvaluator.evaluate(q, (RetrievalModelIndri) r);
+		if (isDaat && q instanceof QryopSl)
+			return DocScorer.evaluate((QryopSl) q, r);
+		return q.evaluate(r);
+	}
+
+	/**
+	 * Evaluate a query operator as the argument of another, using the query
+	 * cache if there is one, and the result of a shared operator (see
+	 * QueryOptimizer) if it has been evaluated. Operators use this instead of
+	 * calling evaluate on their arguments, and must not modify the result.
+	 * 
+	 * @param q
+	 *            The query operator.
+	 * @param r
+	 *            A retrieval model that controls how the operator behaves.
+	 * @return The result of evaluating the operator.
+	 * @throws IOException
+	 */
+	static QryResult evaluateArg(Qryop q, RetrievalModel r) throws IOException {
+
+		// A shared operator is evaluated the first time that it is used
+		if (q.shared) {
+			if (q.sharedResult == null)
+				q.sharedResult = evaluateCached(q, r);
+			else
+				QueryOptimizer.evaluationSaved();
+			return q.sharedResult;
+		}
+
+		return evaluateCached(q, r);
+	}
+
+	/**
+	 * Evaluate a query operator, using the query cache if there is one.
+	 */
+	private static QryResult evaluateCached(Qryop q, RetrievalModel r)
+			throws IOException {
+		if (queryCache == null)
+			return q.evaluate(r);
+
+		String key = QueryCache.key(q, r);
+		QryResult result = queryCache.get(key);
+
+		if (result == null) {
+			result = q.evaluate(r);
+			queryCache.put(key, result);
+		}
+		return result;
+	}
+
 	/**
 	 * Write an error message and exit. This can be done in other ways, but I
 	 * wanted something that takes just one statement so that it is easy to
@@ -964,6 +1155,18 @@ public class QryEval {
 		System.exit(1);
 	}
 
+	/**
+	 * Convert a cache size parameter, in megabytes, to bytes. Fractions
+	 * of a megabyte are allowed (e.g. 0.5).
+	 * 
+	 * @param value
+	 *            The parameter's value.
+	 * @return The number of bytes.
+	 */
+	private static long megabytes(String value) {
+		return (long) (Double.parseDouble(value) * 1024 * 1024);
+	}
+
 	/**
 	 * Get the external document id for a document specified by an internal
 	 * document id. If the internal id doesn't exists, returns null.
@@ -973,9 +1176,21 @@ public class QryEval {
 	 * @throws IOException
 	 */
 	static String getExternalDocid(int iid) throws IOException {
-		Document d = QryEval.READER.document(iid);
-		String eid = d.get("externalId");
-		return eid;
+		return docIdMap.getExternalDocid(iid);
+	}
+
+	/**
+	 * Get the rank of a document's external id in external id order, so
+	 * that documents can be ordered by external id without looking the
+	 * ids up.
+	 * 
+	 * @param iid
+	 *            The internal document id of the document.
+	 * @return The rank, or Integer.MAX_VALUE if the document doesn't have
+	 *         an external id.
+	 */
+	static int getExternalIdRank(int iid) {
+		return docIdMap.getExternalIdRank(iid);
 	}
 
 	/**
@@ -989,18 +1204,11 @@ public class QryEval {
 	 * @throws Exception
 	 */
 	static int getInternalDocid(String externalId) throws Exception {
-		Query q = new TermQuery(new Term("externalId", externalId));
-
-		IndexSearcher searcher = new IndexSearcher(QryEval.READER);
-		TopScoreDocCollector collector = TopScoreDocCollector.create(1, false);
-		searcher.search(q, collector);
-		ScoreDoc[] hits = collector.topDocs().scoreDocs;
+		int iid = docIdMap.getInternalDocid(externalId);
 
-		if (hits.length < 1) {
+		if (iid < 0)
 			throw new Exception("External id not found.");
-		} else {
-			return hits[0].doc;
-		}
+		return iid;
 	}
 
 	/**
@@ -1118,7 +1326,10 @@ public class QryEval {
 				// argument to the higher-level operator, and shift
 				// processing back to the higher-level operator.
 
-				stack.pop();
+				// Weighted operators are complete, so normalize their weights.
+				Qryop closedOp = stack.pop();
+				if (closedOp instanceof QryopSlW)
+					((QryopSlW) closedOp).normalizeWeights();
 
 				// if (weight != -1.0 && braceCnt == 0) {
 
@@ -1253,32 +1464,22 @@ public class QryEval {
 			throws IOException {
 
 		StringBuffer buffer = new StringBuffer();
-		int scoreListSize = result.docScores.scores.size();
-		HashMap<Integer, String> extIDHM = null;
-		ExtDocId extDocId;
-
-		if (result != null) {
-			extDocId = new ExtDocId(result);
-			extDocId.store();
-			extIDHM = extDocId.getHM();
-			result.sortResult(extIDHM);
-		}
-		if (result == null || scoreListSize < 1) {
+
+		if (result == null || result.docScores.scores.size() < 1) {
 			buffer.append(queryID + " Q0 dummy 1 0.000000000000 run-1");
-		} else {
-			int cnt = 1;
-			for (int i = 0; i < scoreListSize; i++) {
-
-				if (cnt <= 100) {
-					buffer.append(queryID).append(" Q0 ")
-							.append(extIDHM.get(result.docScores.getDocid(i)))
-							.append(" ").append(cnt).append(" ")
-							.append(result.docScores.getDocidScore(i))
-							.append(" ").append("run-1").append("\n");
-					cnt++;
-				} else
-					return buffer;
-			}
+			return buffer;
+		}
+
+		// Only the top documents are ranked, and only their external ids
+		// are looked up.
+		TopKCollector.ScoredDoc[] topDocs = TopKCollector.topDocs(
+				result.docScores, MAX_RESULTS);
+
+		for (int i = 0; i < topDocs.length; i++) {
+			buffer.append(queryID).append(" Q0 ")
+					.append(topDocs[i].externalId).append(" ")
+					.append(i + 1).append(" ").append(topDocs[i].score)
+					.append(" ").append("run-1").append("\n");
 		}
 
 		return buffer;
@@ -1,5 +1,3 @@
-import java.util.HashMap;
-
 /**
  *  All query operators return QryResult objects.  QryResult objects
  *  encapsulate the inverted lists (InvList) produced by QryopIl query
@@ -20,9 +18,5 @@ public class QryResult {
   // Store the results of different types of query operators.
   ScoreList docScores = new ScoreList();
   InvList invertedList = new InvList();
-  
-  public void sortResult(HashMap<Integer, String> extIDHM) {
-	  docScores.sortResult(extIDHM);
-  }
 
 }
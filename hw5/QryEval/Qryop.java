@@ -31,6 +31,13 @@ public abstract class Qryop {
   protected ArrayList<Qryop> args = new ArrayList<Qryop>();
   protected List<ArgPtr> argPtrs = new ArrayList<ArgPtr>();
 
+  //  QueryOptimizer sets shared if this operator is the argument of
+  //  more than one operator.  A shared operator keeps its result, so
+  //  that it is evaluated once per query.
+
+  boolean shared = false;
+  QryResult sharedResult = null;
+
   
   /**
    *  Appends an argument to the list of query operator arguments.  This
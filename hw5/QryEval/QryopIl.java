@@ -25,7 +25,7 @@ public abstract class QryopIl extends Qryop {
 
     for (int i=0; i<this.args.size(); i++) {
       ArgPtr ptri = new ArgPtr ();
-      ptri.invList = this.args.get(i).evaluate(r).invertedList;
+      ptri.invList = QryEval.evaluateArg (this.args.get(i), r).invertedList;
       ptri.scoreList = null;
       ptri.nextDoc = 0;
 	
@@ -33,4 +33,17 @@ public abstract class QryopIl extends Qryop {
     }
   }
 
+  /**
+   *  Return a cursor over the inverted list that this query operator
+   *  produces.  By default the operator is evaluated and the cursor
+   *  walks the result; operators that can stream their postings
+   *  override this to avoid materializing an InvList.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @return A cursor positioned before the first posting.
+   *  @throws IOException
+   */
+  public PostingsCursor cursor (RetrievalModel r) throws IOException {
+    return PostingsCursor.forInvList (QryEval.evaluateArg (this, r).invertedList);
+  }
+
 }
@@ -65,84 +65,129 @@ public class QryopIlNear extends QryopIl {
 	 */
 	public QryResult evaluateBoolean (RetrievalModel r) throws IOException {
 
-	    //  Initialization
-	    allocArgPtrs (r);
+	    //  Plan the intersection from the arguments' index statistics.
+	    //  If some argument can't match any document, neither can this.
 	    QryResult result = new QryResult();
-	    
+	    QueryPlanner.Plan plan = QueryPlanner.conjunction(this);
 
-	    ArgPtr ptr0 = this.argPtrs.get(0);
-	    result.invertedList.field = new String(ptr0.invList.field);
-	    
+	    if (plan.strategy == QueryPlanner.Strategy.EMPTY) {
+	    	if (plan.estimates.length > 0)
+	    		result.invertedList.field = plan.estimates[0].field;
+	    	return result;
+	    }
+
+	    //  Initialization.  Arguments are read through cursors.  The
+	    //  rarest argument leads, and the others advance to its next
+	    //  document, so the work is bounded by the rarest argument
+	    //  rather than the first.
+	    int argSize = this.args.size();
+	    PostingsCursor[] cursors = new PostingsCursor[argSize];
+
+	    for (int i = 0; i < argSize; i++)
+	    	cursors[i] = ((QryopIl) this.args.get(i)).cursor(r);
+
+	    PostingsCursor lead = cursors[plan.order[0]];
+	    result.invertedList.field = new String(cursors[0].field);
+	    int ptr0Docid = lead.nextDoc();
+
+	    //  Positions are matched in per-thread buffers that are reused
+	    //  for every document.
+	    PositionBuffers buffers = PositionBuffers.acquire(argSize);
 
 	    EVALUATEDOCUMENTS:
-			for ( ; ptr0.nextDoc < ptr0.invList.postings.size(); ptr0.nextDoc ++) {
-				
-				int ptr0Docid = ptr0.invList.getDocid (ptr0.nextDoc);
-				ArgPtr[] ptr = new ArgPtr[this.argPtrs.size()-1];
-			
+			while (ptr0Docid != PostingsCursor.NO_MORE_DOCS) {
 			
-		  	  	for (int j=0; (j + 1) < this.argPtrs.size(); j++) {
-		  	  		ptr[j] = this.argPtrs.get(j + 1);
-			  	  	while (true) {
-						if (ptr[j].nextDoc >= ptr[j].invList.postings.size())
-							break EVALUATEDOCUMENTS;		// No more docs can match
-						else if (ptr[j].invList.getDocid (ptr[j].nextDoc) > ptr0Docid)
-							continue EVALUATEDOCUMENTS;	// The ptr0docid can't match.
-						else if (ptr[j].invList.getDocid (ptr[j].nextDoc) < ptr0Docid)
-							ptr[j].nextDoc ++;			// Not yet at the right doc.
-						else
-							break;				// ptrj matches ptr0Docid
-					}
+		  	  	for (int j = 1; j < argSize; j++) {
+		  	  		PostingsCursor ptrj = cursors[plan.order[j]];
+		  	  		int ptrjDocid = ptrj.docID();
+
+		  	  		if (ptrjDocid < ptr0Docid)
+		  	  			ptrjDocid = ptrj.advance(ptr0Docid);	// Not yet at the right doc.
+
+		  	  		if (ptrjDocid == PostingsCursor.NO_MORE_DOCS)
+		  	  			break EVALUATEDOCUMENTS;		// No more docs can match
+		  	  		else if (ptrjDocid > ptr0Docid) {
+		  	  			ptr0Docid = lead.advance(ptrjDocid);	// The ptr0docid can't match.
+		  	  			continue EVALUATEDOCUMENTS;
+		  	  		}
 		  	  	}
 		  	  	
-		  	  	// ptr0Docid exists in all argPtrs, check distance
-		  	  	List<Integer> positions = new ArrayList<Integer>();
-		  	  	int[] ptriPosArray = new int[this.argPtrs.size()-1];
+		  	  	// ptr0Docid exists in all args, so fetch the positions
+		  	  	for (int i = 0; i < argSize; i++)
+		  	  		buffers.readPositions(i, cursors[i]);
 
-		  	  	
-		  	  	LOOPPTR0POSITION:
-		  	  	for (int ptr0Pos : ptr0.invList.postings.get(ptr0.nextDoc).positions) {
-		  	  		int prevArgPos = ptr0Pos;
-		  	  		
-		  	  		LOOPPTRI:
-			  	  	for (int i=0; i < this.argPtrs.size() - 1; i++) {
-			  	  		
-			  	  		Vector<Integer> ptriPosList = ptr[i].invList.postings.get(ptr[i].nextDoc).positions;
-
-				  	  	for (int j = ptriPosArray[i]; j < ptriPosList.size(); j++) {
-				  	  		int ptriPos = ptriPosList.get(j);
-				  	  		ptriPosArray[i] = j;
-				  	  		
-				  	  		if (ptriPos <= prevArgPos) {				  	  			
-				  	  			continue; // increment ptriPos to place it at the position after prevArgPos
-				  	  		} else if (ptriPos - prevArgPos <= distance) {				  	  		
-				  	  			prevArgPos = ptriPos;
-				  	  			continue LOOPPTRI; // match! check next arg
-				  	  		} else {
-				  	  			continue LOOPPTR0POSITION; //imcrement ptr0Pos to check next position of first arg
-				  	  		}
-				  	  	}
-				  	  	break LOOPPTR0POSITION;
-			  	  	}
-			  	  	
-			  	  	// store matched ptr0Pos
-			  	  	positions.add(ptr0Pos);
-			  	  	
-			  	  	// increment position in all args
-			  	  	for (int i=0; i < this.argPtrs.size() - 1; i++) {
-			  	  		ptriPosArray[i]++;
-			  	  	}
-		  	  	}
-		  	  	
 		  	  	//add to result (inverted list)
-		  	  	if (!positions.isEmpty()) {
-		  	  		result.invertedList.appendPosting(ptr0Docid, positions);
+		  	  	int numPositions = matchPositions(buffers, argSize, this.distance);
+		  	  	if (numPositions > 0) {
+		  	  		result.invertedList.appendPosting(ptr0Docid, buffers.matches, numPositions);
 		  	  	}
+
+		  	  	ptr0Docid = lead.nextDoc();
 			}
+
+	    PositionBuffers.release(buffers);
 	     
-	    freeArgPtrs ();
 	    return result;
 	}   		  
+
+	/**
+	 *  Find the positions of the first argument that start a match:
+	 *  each argument occurs after the previous one, at most distance
+	 *  positions after it.  Matches don't overlap.
+	 *  @param b The arguments' positions in the document.  Receives
+	 *  the matched positions in b.matches.
+	 *  @param argSize The number of arguments.
+	 *  @param distance The largest distance between adjacent arguments.
+	 *  @return The number of matches stored in b.matches.
+	 */
+	private static int matchPositions (PositionBuffers b, int argSize, int distance) {
+
+		int[][] argPositions = b.positions;
+		int[] ptriPosArray = b.pointers;
+		int ptr0Tf = b.lengths[0];
+		int[] positions = b.matches(ptr0Tf);
+		int numPositions = 0;
+
+		for (int i = 0; i < argSize; i++)
+			ptriPosArray[i] = 0;
+
+		LOOPPTR0POSITION:
+		for (int k = 0; k < ptr0Tf; k++) {
+			int ptr0Pos = argPositions[0][k];
+			int prevArgPos = ptr0Pos;
+
+			LOOPPTRI:
+			for (int i = 1; i < argSize; i++) {
+
+				int ptriTf = b.lengths[i];
+
+				for (int j = ptriPosArray[i]; j < ptriTf; j++) {
+					int ptriPos = argPositions[i][j];
+					ptriPosArray[i] = j;
+
+					if (ptriPos <= prevArgPos) {
+						continue; // increment ptriPos to place it at the position after prevArgPos
+					} else if (ptriPos - prevArgPos <= distance) {
+						prevArgPos = ptriPos;
+						continue LOOPPTRI; // match! check next arg
+					} else {
+						continue LOOPPTR0POSITION; //imcrement ptr0Pos to check next position of first arg
+					}
+				}
+				break LOOPPTR0POSITION;
+			}
+
+			// store matched ptr0Pos
+			positions[numPositions++] = ptr0Pos;
+
+			// increment position in all args
+			for (int i = 1; i < argSize; i++) {
+				ptriPosArray[i]++;
+			}
+		}
+
+		return numPositions;
+	}
 	      
 	      
 	  /*
@@ -172,7 +217,7 @@ public class QryopIlNear extends QryopIl {
 	    for (int i=0; i<this.args.size(); i++)
 	      result += this.args.get(i).toString() + " ";
 
-	    return ("#NEAR/" + this.nearDistance + "(" + result + ")");
+	    return ("#NEAR/" + this.distance + "( " + result + ")");
 	  }
 
 
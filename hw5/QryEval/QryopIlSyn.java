@@ -50,45 +50,82 @@ public class QryopIlSyn extends QryopIl {
     QryResult result = new QryResult ();
     result.invertedList.field = new String (this.argPtrs.get(0).invList.field);
 
-    //  Each pass of the loop adds 1 document to result until all of
-    //  the inverted lists are depleted.  When a list is depleted, it
-    //  is removed from argPtrs, so this loop runs until argPtrs is empty.
-
-    //  This implementation is intended to be clear.  A more efficient
-    //  implementation would combine loops and use merge-sort.
-
-    while (this.argPtrs.size() > 0) {
+    //  The arguments are merged with a heap keyed by each argument's
+    //  current docid.  Each pass of the loop adds 1 document to
+    //  result: the arguments that match it are popped off the heap,
+    //  and their positions are merged (with a second heap) into one
+    //  sorted list.  Exhausted arguments leave the heap, so the loop
+    //  runs until the heap is empty.  Empty inverted lists can't
+    //  contribute anything, so they never enter it.
+
+    int argSize = this.argPtrs.size();
+    MergeHeap docs = new MergeHeap (argSize);
+    MergeHeap locs = new MergeHeap (argSize);
+    int[] matched = new int[argSize];
+    int[] locNext = new int[argSize];
+    int[] positions = new int[16];
+
+    for (int i=0; i<argSize; i++) {
+      ArgPtr ptri = this.argPtrs.get(i);
+      if (ptri.invList.df > 0)
+	docs.add (i, ptri.invList.getDocid (0));
+    }
 
-      int nextDocid = getSmallestCurrentDocid ();
+    while (docs.size() > 0) {
 
-      //  Create a new posting that is the union of the posting lists
-      //  that match the nextDocid.
+      int nextDocid = docs.topValue ();
+      int numMatched = 0;
+      int numPositions = 0;
 
-      List<Integer> positions = new ArrayList<Integer>();
+      //  Find the arguments that match nextDocid.  Their postings for
+      //  nextDocid are at nextDoc-1 once they have moved on.
 
-      for (int i=0; i<this.argPtrs.size(); i++) {
+      while (docs.size() > 0 && docs.topValue () == nextDocid) {
+	int i = docs.topStream ();
 	ArgPtr ptri = this.argPtrs.get(i);
 
-	if (ptri.invList.getDocid (ptri.nextDoc) == nextDocid) {
-	  positions.addAll (ptri.invList.postings.get(ptri.nextDoc).positions);
-	  ptri.nextDoc ++;
-	}
-      }
-
-      Collections.sort (positions);
-      result.invertedList.appendPosting (nextDocid, positions);
+	matched[numMatched++] = i;
+	numPositions += ptri.invList.getTf (ptri.nextDoc);
 
-      //  If an ArgPtr has reached the end of its list, remove it.
-      //  The loop is backwards so that removing an arg does not
-      //  interfere with iteration.
+	ptri.nextDoc ++;
+	if (ptri.nextDoc < ptri.invList.df)
+	  docs.updateTop (ptri.invList.getDocid (ptri.nextDoc));
+	else
+	  docs.pop ();
+      }
 
-      for (int i=this.argPtrs.size()-1; i>=0; i--) {
-	ArgPtr ptri = this.argPtrs.get(i);
+      if (numPositions > positions.length)
+	positions = Arrays.copyOf (positions,
+				   Math.max (numPositions, positions.length * 2));
+
+      //  Merge the positions, which are sorted within each posting.
+
+      if (numMatched == 1) {
+	ArgPtr ptri = this.argPtrs.get(matched[0]);
+	for (int j=0; j<numPositions; j++)
+	  positions[j] = ptri.invList.getPosition (ptri.nextDoc - 1, j);
+      } else {
+	for (int k=0; k<numMatched; k++) {
+	  ArgPtr ptri = this.argPtrs.get(matched[k]);
+	  locs.add (matched[k], ptri.invList.getPosition (ptri.nextDoc - 1, 0));
+	  locNext[matched[k]] = 1;
+	}
 
-	if (ptri.nextDoc >= ptri.invList.postings.size()) {
-	  this.argPtrs.remove (i);
+	int n = 0;
+	while (locs.size() > 0) {
+	  int i = locs.topStream ();
+	  ArgPtr ptri = this.argPtrs.get(i);
+
+	  positions[n++] = locs.topValue ();
+	  if (locNext[i] < ptri.invList.getTf (ptri.nextDoc - 1))
+	    locs.updateTop (ptri.invList.getPosition (ptri.nextDoc - 1,
+						      locNext[i]++));
+	  else
+	    locs.pop ();
 	}
       }
+
+      result.invertedList.appendPosting (nextDocid, positions, numPositions);
     }
 
     freeArgPtrs();
@@ -96,23 +133,6 @@ public class QryopIlSyn extends QryopIl {
     return result;
   }
 
-  /**
-   *  Return the smallest unexamined docid from the ArgPtrs.
-   *  @return The smallest internal document id.
-   */
-  public int getSmallestCurrentDocid () {
-
-    int nextDocid = Integer.MAX_VALUE;
-
-    for (int i=0; i<this.argPtrs.size(); i++) {
-      ArgPtr ptri = this.argPtrs.get(i);
-      if (nextDocid > ptri.invList.getDocid (ptri.nextDoc))
-	nextDocid = ptri.invList.getDocid (ptri.nextDoc);
-      }
-
-    return (nextDocid);
-  }
-
   /**
    *  syntaxCheckArgResults does syntax checking that can only be done
    *  after query arguments are evaluated.
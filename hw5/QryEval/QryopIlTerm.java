@@ -37,6 +37,20 @@ public class QryopIlTerm extends QryopIl {
     this.field = f;
   }
 
+  /**
+   *  @return The term string.
+   */
+  public String getTerm() {
+    return this.term;
+  }
+
+  /**
+   *  @return The field that the term matches in.
+   */
+  public String getField() {
+    return this.field;
+  }
+
   /*
    *  Every Qryop is required to have an add method that appends
    *  query arguments, but that doesn't make sense for the Term
@@ -55,10 +69,39 @@ public class QryopIlTerm extends QryopIl {
    */
   public QryResult evaluate(RetrievalModel r) throws IOException {
     QryResult result = new QryResult();
-    result.invertedList = new InvList(this.term, this.field);
+
+    if (QryEval.invListCache != null)
+      result.invertedList = QryEval.invListCache.get(this.term, this.field);
+    else
+      result.invertedList = new InvList(this.term, this.field);
+
     return result;
   }
 
+  /**
+   *  Return a cursor that reads the term's postings directly from the
+   *  index, so that callers can skip through them with advance().  If
+   *  the inverted list is cached, or the term is shared by several
+   *  operators (see QueryOptimizer), the cursor reads the list in
+   *  memory.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @return A cursor positioned before the first posting.
+   *  @throws IOException
+   */
+  public PostingsCursor cursor(RetrievalModel r) throws IOException {
+
+    if (this.shared)
+      return PostingsCursor.forInvList(QryEval.evaluateArg(this, r).invertedList);
+
+    if (QryEval.invListCache != null) {
+      InvList list = QryEval.invListCache.getIfCached(this.term, this.field);
+      if (list != null)
+	return PostingsCursor.forInvList(list);
+    }
+
+    return PostingsCursor.forTerm(this.term, this.field);
+  }
+
   /*
    *  Return a string version of this query operator.  
    *  @return The string version of this query operator.
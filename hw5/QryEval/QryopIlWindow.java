@@ -1,7 +1,4 @@
-import java.awt.List;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Vector;
 
 public class QryopIlWindow extends QryopIl {
 	private int distance;
@@ -32,84 +29,98 @@ public class QryopIlWindow extends QryopIl {
 	}
 
 	public QryResult evaluateWindow(RetrievalModel r) throws IOException {
-		allocArgPtrs(r);
 		QryResult result = new QryResult();
 
-		int argSize = this.argPtrs.size();
+		int argSize = this.args.size();
 		if (argSize < 1)
 			return result;
 
-		ArgPtr[] argPtrArray = new ArgPtr[argSize];
-		InvList.DocPosting[] postingsArray = new InvList.DocPosting[argSize];
+		// Plan the intersection from the arguments' index statistics. If
+		// some argument can't match any document, neither can this.
+		QueryPlanner.Plan plan = QueryPlanner.conjunction(this);
 
-		// Initialize argPtrArray.
+		if (plan.strategy == QueryPlanner.Strategy.EMPTY) {
+			result.invertedList.field = plan.estimates[0].field;
+			return result;
+		}
+
+		// Arguments are read through cursors. The rarest argument leads,
+		// and the others advance to its next document.
+		PostingsCursor[] cursors = new PostingsCursor[argSize];
 		for (int i = 0; i < argSize; i++)
-			argPtrArray[i] = this.argPtrs.get(i);
+			cursors[i] = ((QryopIl) this.args.get(i)).cursor(r);
 
-		Qryop.ArgPtr ptr0 = this.argPtrs.get(0);
+		PostingsCursor lead = cursors[plan.order[0]];
+		int ptr0Docid = lead.nextDoc();
 
-		if (argSize == 1) {
-			for (; ptr0.nextDoc < ptr0.invList.postings.size(); ptr0.nextDoc++) {
-				int ptr0Docid = ptr0.invList.getDocid(ptr0.nextDoc);
-				Vector<Integer> matchPos = ptr0.invList.postings
-						.get(ptr0.nextDoc).positions;
-				result.invertedList.appendPosting(ptr0Docid, matchPos);
-			}
+		// Positions are matched in per-thread buffers that are reused for
+		// every document.
+		PositionBuffers buffers = PositionBuffers.acquire(argSize);
+
+		EVALUATEDOCUMENTS: while (ptr0Docid != PostingsCursor.NO_MORE_DOCS) {
 
-		} else if (argSize > 1) {
-			EVALUATEDOCUMENTS: for (; ptr0.nextDoc < ptr0.invList.postings
-					.size(); ptr0.nextDoc++) {
-
-				int ptr0Docid = ptr0.invList.getDocid(ptr0.nextDoc);
-				int matchDocCnt = 1;
-				boolean isSecondArg = true;
-
-				for (int j = 1; j < argSize; j++) {
-					Qryop.ArgPtr ptrj = this.argPtrs.get(j);
-					int ptrjSize = ptrj.invList.postings.size();
-					while (true) {
-						if (ptrj.nextDoc >= ptrjSize)
-							break EVALUATEDOCUMENTS; // No more docs can match
-						else if (ptrj.invList.getDocid(ptrj.nextDoc) > ptr0Docid)
-							continue EVALUATEDOCUMENTS; // ptr0docid doesn't
+			for (int j = 1; j < argSize; j++) {
+				PostingsCursor ptrj = cursors[plan.order[j]];
+				int ptrjDocid = ptrj.docID();
+
+				if (ptrjDocid < ptr0Docid)
+					ptrjDocid = ptrj.advance(ptr0Docid); // Not yet at the
+														// right doc.
+
+				if (ptrjDocid == PostingsCursor.NO_MORE_DOCS)
+					break EVALUATEDOCUMENTS; // No more docs can match
+				else if (ptrjDocid > ptr0Docid) {
+					ptr0Docid = lead.advance(ptrjDocid); // ptr0docid doesn't
 														// match
-						else if (ptrj.invList.getDocid(ptrj.nextDoc) < ptr0Docid)
-							ptrj.nextDoc++; // Not yet at the right doc.
-						else {
-							matchDocCnt++;
-							if (isSecondArg) {
-								postingsArray[0] = ptr0.invList.postings
-										.get(ptr0.nextDoc);
-								isSecondArg = false;
-							}
-							postingsArray[j] = ptrj.invList.postings
-									.get(ptrj.nextDoc);
-							if (matchDocCnt == argSize) {
-								ArrayList<Integer> matchPos = returnMatchedPos(
-										postingsArray, this.distance);
-								if (matchPos.size() > 0) {
-									result.invertedList.appendPosting(
-											ptr0Docid, matchPos);
-								}
-							}
-							ptrj.nextDoc++;
-							break;
-						}
-					}
+					continue EVALUATEDOCUMENTS;
 				}
 			}
+
+			// ptr0Docid exists in all args, so fetch the positions.
+			for (int i = 0; i < argSize; i++)
+				buffers.readPositions(i, cursors[i]);
+
+			int[] matchPos = buffers.positions[0];
+			int matchCnt = buffers.lengths[0];
+			if (argSize > 1) {
+				matchPos = buffers.matches(matchCnt);
+				matchCnt = returnMatchedPos(buffers, argSize, this.distance);
+			}
+			if (matchCnt > 0) {
+				result.invertedList.appendPosting(ptr0Docid, matchPos,
+						matchCnt);
+			}
+
+			ptr0Docid = lead.nextDoc();
 		}
-		result.invertedList.field = ptr0.invList.field;
-		freeArgPtrs();
+		PositionBuffers.release(buffers);
+		result.invertedList.field = cursors[0].field;
 		return result;
 	}
 
-	private ArrayList<Integer> returnMatchedPos(
-			InvList.DocPosting[] postingsArray, int distance) {
+	/**
+	 * Find the windows in one document that contain every argument.
+	 * 
+	 * @param b
+	 *            The positions of each argument in the document. Receives
+	 *            the matched positions of the first argument in b.matches,
+	 *            which must have room for them.
+	 * @param size
+	 *            The number of arguments.
+	 * @param distance
+	 *            The maximum window size.
+	 * @return The number of matches stored in b.matches.
+	 */
+	private static int returnMatchedPos(PositionBuffers b, int size,
+			int distance) {
+
+		int matchCnt = 0;
+		int[][] argPositions = b.positions;
+		int[] matchPos = b.matches;
+		int[] curPointers = b.pointers;
 
-		ArrayList<Integer> matchPos = new ArrayList<Integer>();
-		int size = postingsArray.length;
-		int[] curPointers = new int[size];
+		for (int i = 0; i < size; i++)
+			curPointers[i] = 0;
 
 		ITERATE: while (true) {
 
@@ -117,13 +128,13 @@ public class QryopIlWindow extends QryopIl {
 			int maxPos = Integer.MIN_VALUE;
 			int minArg = -1;
 			for (int i = 0; i < size; i++) {
-				int argiPostingSize = postingsArray[i].positions.size();
+				int argiPostingSize = b.lengths[i];
 				int curPtri = curPointers[i];
 
 				if (argiPostingSize <= curPtri)
 					break ITERATE;
 
-				int curPosi = postingsArray[i].positions.get(curPtri);
+				int curPosi = argPositions[i][curPtri];
 				if (curPosi < minPos) {
 					minPos = curPosi;
 					minArg = i;
@@ -136,7 +147,7 @@ public class QryopIlWindow extends QryopIl {
 			if (maxPos - minPos + 1 > distance) {
 				curPointers[minArg]++;
 			} else { // match! add the position of the first arg to return list;
-				matchPos.add(postingsArray[0].positions.get(curPointers[0]));
+				matchPos[matchCnt++] = argPositions[0][curPointers[0]];
 				// increment the pos pointers for all the args.
 				for (int i = 0; i < size; i++) {
 					curPointers[i]++;
@@ -144,7 +155,7 @@ public class QryopIlWindow extends QryopIl {
 			}
 
 		}
-		return matchPos;
+		return matchCnt;
 
 	}
 
@@ -157,8 +168,12 @@ public class QryopIlWindow extends QryopIl {
 
 	@Override
 	public String toString() {
-		// TODO Auto-generated method stub
-		return null;
+		String result = new String();
+
+		for (int i = 0; i < this.args.size(); i++)
+			result += this.args.get(i).toString() + " ";
+
+		return ("#WINDOW/" + this.distance + "( " + result + ")");
 	}
 
 }
@@ -14,6 +14,16 @@ import java.util.*;
 
 public abstract class QryopSl extends Qryop {
 
+  //  The default score plan for the arguments, once it is compiled.
+
+  private IndriDefaultPlan argDefaultPlan = null;
+
+  //  Disjunctive operators with at least this many arguments add their
+  //  arguments' scores into a ScoreAccumulator, one argument at a
+  //  time; narrower ones merge the arguments with a MergeHeap.
+
+  protected static final int WIDE_ARGS = 4;
+
   /**
    *  Use the specified retrieval model to evaluate the query arguments.
    *  Define and return ArgPtrs that the query operator can use.
@@ -24,22 +34,134 @@ public abstract class QryopSl extends Qryop {
   public void allocArgPtrs (RetrievalModel r) throws IOException {
 
     for (int i=0; i<this.args.size(); i++) {
-
-      //  If this argument doesn't return ScoreLists, wrap it
-      //  in a #SCORE operator.
-
-      if (! QryopSl.class.isInstance (this.args.get(i)))
-	this.args.set(i, new QryopSlScore(this.args.get(i)));
-
       ArgPtr ptri = new ArgPtr ();
       ptri.invList = null;
-      ptri.scoreList = this.args.get(i).evaluate(r).docScores;
+      ptri.scoreList = QryEval.evaluateArg (argSl(i), r).docScores;
       ptri.nextDoc = 0;
 	
       this.argPtrs.add (ptri);
     }
   }
 
+  /**
+   *  Create a heap that merges the score lists of the ArgPtrs, keyed
+   *  by each list's current docid.  Empty lists are left out.
+   *  @return The heap.
+   */
+  protected MergeHeap mergeHeap () {
+
+    MergeHeap heap = new MergeHeap (this.argPtrs.size());
+
+    for (int i=0; i<this.argPtrs.size(); i++) {
+      ArgPtr ptri = this.argPtrs.get(i);
+      if (ptri.nextDoc < ptri.scoreList.scores.size())
+	heap.add (i, ptri.scoreList.getDocid (ptri.nextDoc));
+    }
+
+    return heap;
+  }
+
+  /**
+   *  Get an accumulator for the scores of the ArgPtrs.  Its
+   *  representation is chosen by the number of documents that may
+   *  match: at most the sum of the score list sizes.  The caller
+   *  releases it (see ScoreAccumulator.release) when it is done.
+   *  @return The accumulator.
+   */
+  protected ScoreAccumulator accumulator () {
+
+    long estimatedDocs = 0;
+    for (int i=0; i<this.argPtrs.size(); i++)
+      estimatedDocs += this.argPtrs.get(i).scoreList.scores.size();
+
+    return ScoreAccumulator.acquire (QryEval.READER.maxDoc(), estimatedDocs);
+  }
+
+  /**
+   *  Move the ArgPtr at the top of a mergeHeap to its next document,
+   *  and remove it from the heap if its score list is done.
+   *  @param heap The heap.
+   *  @param ptr The ArgPtr at the top of the heap.
+   */
+  protected void nextMergeDoc (MergeHeap heap, ArgPtr ptr) {
+
+    ptr.nextDoc ++;
+    if (ptr.nextDoc < ptr.scoreList.scores.size())
+      heap.updateTop (ptr.scoreList.getDocid (ptr.nextDoc));
+    else
+      heap.pop ();
+  }
+
+  /**
+   *  Get an argument as an operator that returns a ScoreList.  If the
+   *  argument doesn't return ScoreLists, it is wrapped in a #SCORE
+   *  operator first.
+   *  @param i The index of the argument.
+   *  @return The argument.
+   */
+  public QryopSl argSl (int i) {
+
+    if (! QryopSl.class.isInstance (this.args.get(i)))
+      this.args.set(i, new QryopSlScore(this.args.get(i)));
+
+    return (QryopSl) this.args.get(i);
+  }
+
+  /**
+   *  Create a scorer that evaluates this query operator
+   *  document-at-a-time (see DocScorer).  By default the operator is
+   *  evaluated into a ScoreList that the scorer walks; operators that
+   *  can score one document at a time override this.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @return The scorer.
+   *  @throws IOException
+   */
+  public DocScorer docScorer (RetrievalModel r) throws IOException {
+    return new DocScorer.ScoreListScorer (this, r);
+  }
+
+  /**
+   *  Create a document-at-a-time scorer for each query argument,
+   *  wrapping arguments that don't return ScoreLists in a #SCORE
+   *  operator, as allocArgPtrs does.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @return The scorers, in argument order.
+   *  @throws IOException
+   */
+  public DocScorer[] argScorers (RetrievalModel r) throws IOException {
+
+    DocScorer[] scorers = new DocScorer[this.args.size()];
+
+    for (int i=0; i<this.args.size(); i++)
+      scorers[i] = argSl(i).docScorer (r);
+
+    return scorers;
+  }
+
+  /**
+   *  Get the plan that computes the default scores of this operator's
+   *  arguments, compiling it the first time.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @return The plan.
+   *  @throws IOException
+   */
+  public IndriDefaultPlan argDefaultPlan (RetrievalModel r)
+    throws IOException {
+    if (this.argDefaultPlan == null)
+      this.argDefaultPlan = new IndriDefaultPlan (this, r);
+    return this.argDefaultPlan;
+  }
+
+  /**
+   *  Add this operator's default score computation to a plan (see
+   *  IndriDefaultPlan).  By default the plan calls getDefaultScore.
+   *  @param plan The plan being compiled.
+   *  @throws IOException
+   */
+  public void compileDefaultPlan (IndriDefaultPlan plan) throws IOException {
+    plan.addOther (this);
+  }
+
   /*
    *  Calculate the default score for the specified document if it
    *  does not match the query operator.  This score is 0 for many
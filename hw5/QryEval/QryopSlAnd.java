@@ -59,26 +59,47 @@ public class QryopSlAnd extends QryopSl {
    */
   public QryResult evaluateBoolean (RetrievalModel r) throws IOException {
 
-    //  Initialization
-	 // System.err.println("regularAND");
+    //  Plan the intersection from the arguments' index statistics.
+    //  If some argument can't match any document, neither can this.
+
+    QueryPlanner.Plan plan = QueryPlanner.conjunction (this);
+
+    if (plan.strategy == QueryPlanner.Strategy.EMPTY)
+      return new QryResult ();
+
+    //  When every argument is an inverted list, intersect the
+    //  postings directly instead of building a score list for each.
+
+    if (invListArgs () != null)
+      return (evaluateBooleanCursors (r, plan));
+
+    //  Initialization.  The arguments are evaluated rarest first, and
+    //  evaluation stops if one of them matches no documents.
 
-    allocArgPtrs (r);
     QryResult result = new QryResult ();
 
+    for (int i : plan.order) {
+      ArgPtr ptri = new ArgPtr ();
+      ptri.invList = null;
+      ptri.scoreList = QryEval.evaluateArg (argSl(i), r).docScores;
+      ptri.nextDoc = 0;
+      this.argPtrs.add (ptri);
+
+      if (ptri.scoreList.scores.size() == 0) {
+	freeArgPtrs ();
+	return result;
+      }
+    }
+
     //  Sort the arguments so that the shortest lists are first.  This
     //  improves the efficiency of exact-match AND without changing
     //  the result.
 
-    for (int i=0; i<(this.argPtrs.size()-1); i++) {
-      for (int j=i+1; j<this.argPtrs.size(); j++) {
-	    if (this.argPtrs.get(i).scoreList.scores.size() >
-	    this.argPtrs.get(j).scoreList.scores.size()) {
-	      ScoreList tmpScoreList = this.argPtrs.get(i).scoreList;
-	      this.argPtrs.get(i).scoreList = this.argPtrs.get(j).scoreList;
-	      this.argPtrs.get(j).scoreList = tmpScoreList;
-	    }
+    Collections.sort (this.argPtrs, new Comparator<ArgPtr>() {
+      public int compare (ArgPtr p1, ArgPtr p2) {
+	return p1.scoreList.scores.size() - p2.scoreList.scores.size();
       }
-    }
+    });
 
     //  Exact-match AND requires that ALL scoreLists contain a
     //  document id.  Use the first (shortest) list to control the
@@ -127,6 +148,122 @@ public class QryopSlAnd extends QryopSl {
   }
 
 
+  /**
+   *  Evaluates the query operator for boolean retrieval models when
+   *  every argument is an inverted list.  The arguments are read
+   *  through cursors, in the order that the plan gives (shortest
+   *  first), and the shortest list controls the search for matches.
+   *  The other lists advance to its documents.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @param plan The plan of the intersection.
+   *  @return The result of evaluating the query.
+   *  @throws IOException
+   */
+  public QryResult evaluateBooleanCursors (RetrievalModel r,
+					   QueryPlanner.Plan plan) throws IOException {
+
+    QryResult result = new QryResult ();
+    QryopIl[] ilArgs = invListArgs ();
+    PostingsCursor[] cursors = new PostingsCursor[ilArgs.length];
+
+    for (int i=0; i<ilArgs.length; i++)
+      cursors[i] = ilArgs[plan.order[i]].cursor (r);
+
+    PostingsCursor ptr0 = cursors[0];
+    int ptr0Docid = ptr0.nextDoc ();
+
+    EVALUATEDOCUMENTS:
+    while (ptr0Docid != PostingsCursor.NO_MORE_DOCS) {
+
+      double docScore = (rankedFlag) ? ptr0.freq () : 1.0;
+
+      //  Do the other query arguments have the ptr0Docid?
+      for (int j=1; j<cursors.length; j++) {
+	int ptrjDocid = cursors[j].docID ();
+
+	if (ptrjDocid < ptr0Docid)
+	  ptrjDocid = cursors[j].advance (ptr0Docid);	// Not yet at the right doc.
+
+	if (ptrjDocid == PostingsCursor.NO_MORE_DOCS)
+	  break EVALUATEDOCUMENTS;			// No more docs can match
+	else if (ptrjDocid > ptr0Docid) {
+	  ptr0Docid = ptr0.advance (ptrjDocid);		// The ptr0docid can't match.
+	  continue EVALUATEDOCUMENTS;
+	}
+
+	if (rankedFlag)
+	  docScore = Math.min (docScore, cursors[j].freq ());
+      }
+
+      //  The ptr0Docid matched all query arguments, so save it.
+      result.docScores.add (ptr0Docid, docScore);
+      ptr0Docid = ptr0.nextDoc ();
+    }
+
+    return result;
+  }
+
+  /**
+   *  Create a scorer that evaluates this operator document-at-a-time.
+   *  A document matches if every argument matches it.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @return The scorer.
+   *  @throws IOException
+   */
+  public DocScorer docScorer (RetrievalModel r) throws IOException {
+
+    if (! (r instanceof RetrievalModelUnrankedBoolean) &&
+	! (r instanceof RetrievalModelRankedBoolean))
+      return super.docScorer (r);
+
+    final boolean ranked = (r instanceof RetrievalModelRankedBoolean);
+
+    return new DocScorer.Intersection (argScorers (r)) {
+      public double score (int docid) throws IOException {
+	double docScore = this.scorers[0].score (docid);
+
+	if (ranked)
+	  for (int i=1; i<this.scorers.length; i++)
+	    docScore = Math.min (docScore, this.scorers[i].score (docid));
+
+	return docScore;
+      }
+
+      public double defaultScore (int docid) {
+	return 0.0;
+      }
+    };
+  }
+
+  /**
+   *  Return the inverted list operators that produce this operator's
+   *  arguments, looking through #SCORE operators that the query
+   *  parser or allocArgPtrs wrapped around them.
+   *  @return The operators, or null if some argument is not an
+   *  inverted list.
+   */
+  private QryopIl[] invListArgs () {
+
+    if (this.args.size () == 0)
+      return null;
+
+    QryopIl[] ilArgs = new QryopIl[this.args.size ()];
+
+    for (int i=0; i<this.args.size(); i++) {
+      Qryop arg = this.args.get (i);
+
+      if ((arg instanceof QryopSlScore) && (arg.args.size () == 1))
+	arg = arg.args.get (0);
+
+      if (! (arg instanceof QryopIl))
+	return null;
+
+      ilArgs[i] = (QryopIl) arg;
+    }
+
+    return ilArgs;
+  }
+
   /*
    *  Calculate the default score for the specified document if it
    *  does not match the query operator.  This score is 0 for many
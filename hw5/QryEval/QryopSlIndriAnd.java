@@ -29,10 +29,16 @@ public class QryopSlIndriAnd extends QryopSl{
 	    for (int j = 0; j < argSize; j++) {
 			argPtrArray[j] = this.argPtrs.get(j);
 	    }   
+
+	    // Default scores are computed for all the arguments at once, the
+	    // first time that an argument doesn't match a document.
+	    IndriDefaultPlan plan = argDefaultPlan(r);
+	    double[] defaults = new double[argSize];
 	    
 	    while (argCounter > 0) {
 			int minDocid = Integer.MAX_VALUE;
 			double score = 1.0;
+			boolean hasDefaults = false;
 			
 			// Find min docid
 			for (int i = 0; i < argSize; i++) {
@@ -57,8 +63,11 @@ public class QryopSlIndriAnd extends QryopSl{
 				int docid = Integer.MAX_VALUE;
 				
 				if (curPtr.nextDoc >= curPtr.scoreList.scores.size()) {
-					
-					score *= ((QryopSl)this.args.get(i)).getDefaultScore(r, minDocid);
+					if (!hasDefaults) {
+						plan.argDefaults(minDocid, defaults);
+						hasDefaults = true;
+					}
+					score *= defaults[i];
 				}				
 				else if (curPtr.nextDoc < curPtr.scoreList.scores.size()) {
 					docid = curPtr.scoreList.getDocid(curPtr.nextDoc);
@@ -70,8 +79,11 @@ public class QryopSlIndriAnd extends QryopSl{
 							argCounter --;
 						}
 					} else { // docid > minDocid
-						
-						score *= ((QryopSl)this.args.get(i)).getDefaultScore(r, minDocid);
+						if (!hasDefaults) {
+							plan.argDefaults(minDocid, defaults);
+							hasDefaults = true;
+						}
+						score *= defaults[i];
 					}
 				}				
 			}
@@ -86,14 +98,45 @@ public class QryopSlIndriAnd extends QryopSl{
 	   
 	}
 
+	/**
+	 * Create a scorer that evaluates this operator document-at-a-time.
+	 * Arguments that don't match a document contribute their default
+	 * scores to its geometric mean.
+	 * 
+	 * @param r
+	 *            A retrieval model that controls how the operator behaves.
+	 * @return The scorer.
+	 * @throws IOException
+	 */
+	public DocScorer docScorer(final RetrievalModel r) throws IOException {
+
+		DocScorer[] scorers = argScorers(r);
+
+		return new DocScorer.Union(scorers, argDefaultPlan(r)) {
+			public double score(int docid) throws IOException {
+				double score = 1.0;
+				for (int i = 0; i < this.scorers.length; i++)
+					score *= argScoreOrDefault(i, docid);
+				return Math.pow(score, 1 / (double) this.scorers.length);
+			}
+
+			public double defaultScore(int docid) throws IOException {
+				return getDefaultScore(r, docid);
+			}
+		};
+	}
+
 	  public double getDefaultScore (RetrievalModel r, long docid) throws IOException {
 
 		   if (r instanceof RetrievalModelIndri) {
 			   	
 		    	int argSize = this.args.size();
+		    	double[] defaults = new double[argSize];
+		    	argDefaultPlan(r).argDefaults((int) docid, defaults);
+
 		    	double score = 1.0;
 		    	for (int i = 0; i < argSize; i++) {
-		    		score *= ((QryopSlScore)this.args.get(i)).getDefaultScore(r, docid);
+		    		score *= defaults[i];
 		    	}
 		    	return Math.pow(score, 1.0/argSize);
 		    }
@@ -101,10 +144,28 @@ public class QryopSlIndriAnd extends QryopSl{
 		    return 0.0;
 	  }
 
+	/**
+	 * Add this operator's default score computation to a plan.
+	 * 
+	 * @param plan
+	 *            The plan being compiled.
+	 * @throws IOException
+	 */
+	public void compileDefaultPlan(IndriDefaultPlan plan)
+			throws IOException {
+		for (int i = 0; i < this.args.size(); i++)
+			argSl(i).compileDefaultPlan(plan);
+		plan.addAnd(this.args.size());
+	}
+
 	@Override
 	public String toString() {
-		// TODO Auto-generated method stub
-		return null;
+		String result = new String();
+
+		for (int i = 0; i < this.args.size(); i++)
+			result += this.args.get(i).toString() + " ";
+
+		return ("#AND( " + result + ")");
 	}
 	
 	
@@ -35,29 +35,44 @@ public class QryopSlOr extends QryopSl {
 		
 		allocArgPtrs(r);
 		QryResult result = new QryResult();
-		HashMap<Integer, Double> idScoreHM = new HashMap<Integer, Double>();
-		
-		for (int i=0; i < this.argPtrs.size(); i++) {
-			
-			ArgPtr ptri = this.argPtrs.get(i);
-			
-			for( ; ptri.nextDoc < ptri.scoreList.scores.size(); ptri.nextDoc++) {
-				int docid = ptri.scoreList.getDocid(ptri.nextDoc);
-				double score = ptri.scoreList.getDocidScore(ptri.nextDoc);
-				if (idScoreHM.get(docid) == null)
-					idScoreHM.put (docid, score);
-				else {
-					double prevScore = idScoreHM.get(docid);
-					if (prevScore < score)
-						idScoreHM.put(docid, score);										
-				}						
+
+		//  Wide queries keep each document's highest score in an
+		//  accumulator.
+
+		if (this.argPtrs.size() >= WIDE_ARGS) {
+			ScoreAccumulator acc = accumulator();
+
+			for (int i=0; i < this.argPtrs.size(); i++) {
+				ScoreList sl = this.argPtrs.get(i).scoreList;
+				for (int j=0; j < sl.scores.size(); j++)
+					acc.max(sl.getDocid(j), sl.getDocidScore(j));
 			}
+
+			acc.toScoreList(result.docScores);
+			ScoreAccumulator.release(acc);
+			freeArgPtrs();
+			return result;
 		}
-		
-		Iterator hashItr = idScoreHM.entrySet().iterator();
-		while (hashItr.hasNext()) {
-			Map.Entry<Integer, Double> pair = (Map.Entry) hashItr.next();
-			result.docScores.add(pair.getKey(), pair.getValue());
+
+		//  Merge the arguments' score lists with a heap keyed by each
+		//  argument's current docid, so that the result is in docid
+		//  order.  A document's score is the highest of its scores.
+
+		MergeHeap heap = mergeHeap();
+
+		while (heap.size() > 0) {
+			int docid = heap.topValue();
+			double score = Double.NEGATIVE_INFINITY;
+
+			while (heap.size() > 0 && heap.topValue() == docid) {
+				ArgPtr ptri = this.argPtrs.get(heap.topStream());
+				double argScore = ptri.scoreList.getDocidScore(ptri.nextDoc);
+				if (score < argScore)
+					score = argScore;
+				nextMergeDoc(heap, ptri);
+			}
+
+			result.docScores.add(docid, score);
 		}
 
 
@@ -65,6 +80,36 @@ public class QryopSlOr extends QryopSl {
 		return result;
 	}
 		
+	/**
+	 *  Create a scorer that evaluates this operator document-at-a-time.
+	 *  A document matches if any argument matches it, and its score is
+	 *  the highest score of the matching arguments.
+	 *  @param r A retrieval model that controls how the operator behaves.
+	 *  @return The scorer.
+	 *  @throws IOException
+	 */
+	public DocScorer docScorer (RetrievalModel r) throws IOException {
+
+		if (! (r instanceof RetrievalModelUnrankedBoolean) &&
+			! (r instanceof RetrievalModelRankedBoolean))
+			return super.docScorer(r);
+
+		return new DocScorer.Union(argScorers(r)) {
+			public double score (int docid) throws IOException {
+				double score = Double.NEGATIVE_INFINITY;
+				for (int i=0; i < this.scorers.length; i++) {
+					if (this.scorers[i].docID() == docid)
+						score = Math.max(score, this.scorers[i].score(docid));
+				}
+				return score;
+			}
+
+			public double defaultScore (int docid) {
+				return 0.0;
+			}
+		};
+	}
+
 	/*
 	 *  Calculate the default score for the specified document if it
 	 *  does not match the query operator.  This score is 0 for many
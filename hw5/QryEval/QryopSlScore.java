@@ -9,12 +9,14 @@
  */
 
 import java.io.*;
+import java.nio.IntBuffer;
 import java.util.*;
 
 public class QryopSlScore extends QryopSl {
 
   private String field = "body";
   private double ctf = 0;
+  private boolean hasStats = false;	// True once field and ctf are set
   /**
    *  Construct a new SCORE operator.  The SCORE operator accepts just
    *  one argument.
@@ -64,6 +66,34 @@ public class QryopSlScore extends QryopSl {
     return null;
   }
 
+  /**
+   *  Evaluate the query argument, in a new result that the scores can
+   *  be added to.  The argument's own result may be cached, so it is
+   *  not modified; the inverted list is shared.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @return The result.
+   *  @throws IOException
+   */
+  private QryResult argResult (RetrievalModel r) throws IOException {
+    QryResult result = new QryResult ();
+    result.invertedList = QryEval.evaluateArg (args.get(0), r).invertedList;
+    return result;
+  }
+
+  /**
+   *  Remember the field and ctf of the argument's inverted list, which
+   *  the default scores use.  A list that matches no documents leaves
+   *  the defaults (body, 0).
+   *  @param list The argument's inverted list.
+   */
+  private void setStats (InvList list) {
+    if (list.df > 0) {
+      this.field = list.field;
+      this.ctf = list.ctf;
+    }
+    this.hasStats = true;
+  }
+
  /**
    *  Evaluate the query operator for boolean retrieval models.
    *  @param r A retrieval model that controls how the operator behaves.
@@ -73,7 +103,7 @@ public class QryopSlScore extends QryopSl {
   public QryResult evaluateBoolean(RetrievalModel r) throws IOException {
 
     // Evaluate the query argument.
-    QryResult result = args.get(0).evaluate(r);
+    QryResult result = argResult(r);
 
     // Each pass of the loop computes a score for one document. Note:
     // If the evaluate operation above returned a score list (which is
@@ -83,9 +113,9 @@ public class QryopSlScore extends QryopSl {
       // DIFFERENT RETRIEVAL MODELS IMPLEMENT THIS DIFFERENTLY. 
       // Unranked Boolean. All matching documents get a score of 1.0.
       if (r instanceof RetrievalModelUnrankedBoolean)
-        result.docScores.add(result.invertedList.postings.get(i).docid, (float) 1.0);
+        result.docScores.add(result.invertedList.getDocid(i), (float) 1.0);
       else if(r instanceof RetrievalModelRankedBoolean)
-    	  result.docScores.add(result.invertedList.postings.get(i).docid, 
+    	  result.docScores.add(result.invertedList.getDocid(i), 
     			  				(float) (result.invertedList.getTf(i)));
     }
 
@@ -101,7 +131,7 @@ public class QryopSlScore extends QryopSl {
 
   
   public QryResult evaluateBM25 (RetrievalModel r) throws IOException {
-  	  QryResult result = args.get(0).evaluate(r);
+  	  QryResult result = argResult(r);
   	  
       double score = 0.0;//1.0?
   	  double k1, b, k3;
@@ -112,26 +142,29 @@ public class QryopSlScore extends QryopSl {
       String field = result.invertedList.field;
 
       double idf, tfWeight, userWeight;
-      DocLengthStore docLenStore = QryEval.dls;
+      IntBuffer docLengths = QryEval.dls.getDocLengths(field);
     
 	  int df = result.invertedList.df;
-	  double numDocs = QryEval.READER.numDocs();
+	  double numDocs = QryEval.stats.numDocs;
 	  idf = Math.log((numDocs - df + 0.5) / (df + 0.5));
 	  idf = Math.max(0, idf);
 		
 	  int qtf = 1;
 	  userWeight = (k3+1) * qtf / (k3+qtf);
+
+	  if (df == 0)
+	    return result;
+
+	  double avg_doclen = QryEval.stats.field(field).avgLength;
     
   	  for (int i = 0; i < result.invertedList.df; i++) {
   											  		
   		  int tf = result.invertedList.getTf(i);
-  		  long doclen = docLenStore.getDocLength(field, result.invertedList.postings.get(i).docid);
-  		  double avg_doclen = (double) QryEval.READER.getSumTotalTermFreq(field) / 
-									(double) QryEval.READER.getDocCount(field);
+  		  long doclen = docLengths.get(result.invertedList.getDocid(i));
   		  tfWeight = tf / (tf + k1*((1-b) + b*doclen/avg_doclen));
 		
   		  score = idf*tfWeight*userWeight;
-  		  result.docScores.add(result.invertedList.postings.get(i).docid, (float)score);
+  		  result.docScores.add(result.invertedList.getDocid(i), (float)score);
   		
 	}
   	  
@@ -140,33 +173,37 @@ public class QryopSlScore extends QryopSl {
   
   public  QryResult evaluateIndri (RetrievalModel r) throws IOException {
 	  
-	  	QryResult result = args.get(0).evaluate(r);
+	  	QryResult result = argResult(r);
 
 	  	double mu, lambda;
 	  	mu = ((RetrievalModelIndri) r).getMu();
 	  	lambda = ((RetrievalModelIndri) r).getLambda();
 
+	  	setStats(result.invertedList);
+
+	  	if (result.invertedList.df == 0)
+	  		return result;
+
+	  	//  The collection statistics are the same for every posting.
+
+	  	String field = result.invertedList.field;
+	  	double ctf = result.invertedList.ctf;
+	  	double ctotallen = QryEval.stats.field(field).sumTotalTermFreq;
+	  	double mle = ctf / ctotallen;
+	  	IntBuffer docLengths = QryEval.dls.getDocLengths(field);
+
 	  	for (int i = 0; i < result.invertedList.df; i++) {
 	  		double score = 0.0;
-	  		String field = result.invertedList.field;
-	  		this.field = field;
-	    
-	  		double ctf = result.invertedList.ctf;
-	  		this.ctf = ctf;
-	  		double ctotallen = QryEval.READER.getSumTotalTermFreq(field);
-	  		double mle = ctf / ctotallen;
-	  		
 	  		double tf = result.invertedList.getTf(i);
 	  		
-	        DocLengthStore docLenStore = QryEval.dls;
-	        long doclen = docLenStore.getDocLength(field, result.invertedList.postings.get(i).docid);
+	        long doclen = docLengths.get(result.invertedList.getDocid(i));
 	  		  
 	        double part1 = (1 - lambda) * ((tf + mu * mle) / (doclen +mu));
 	        double part2 = lambda * mle;
 	        
 	        score = part1 + part2;
 	   
-	  		result.docScores.add(result.invertedList.postings.get(i).docid, (float)score);
+	  		result.docScores.add(result.invertedList.getDocid(i), (float)score);
 	  	}
 
 	  	return result; 	
@@ -175,6 +212,149 @@ public class QryopSlScore extends QryopSl {
   
 
 
+  /**
+   *  Create a scorer that scores the argument's postings one document
+   *  at a time, reading them through a PostingsCursor.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @return The scorer.
+   *  @throws IOException
+   */
+  public DocScorer docScorer (RetrievalModel r) throws IOException {
+
+    if (this.args.get(0) instanceof QryopIl) {
+      PostingsCursor cursor = ((QryopIl) this.args.get(0)).cursor(r);
+
+      //  Default scores use the same statistics as evaluateIndri, so
+      //  a list that matches no documents leaves the defaults.
+
+      if (cursor.field != null && cursor.cost() > 0) {
+	this.field = cursor.field;
+	this.ctf = cursor.ctf;
+      }
+      this.hasStats = true;
+      return new LeafScorer (cursor, r);
+    }
+
+    return super.docScorer (r);
+  }
+
+  /**
+   *  The document-at-a-time version of the SCORE operator.  It
+   *  computes the same scores as the evaluate methods, for the posting
+   *  that the cursor is on.
+   */
+  private static class LeafScorer extends DocScorer {
+
+    private PostingsCursor cursor;
+    private RetrievalModel r;
+    private String field;
+
+    //  Statistics that do not change from document to document.
+
+    private double idf, userWeight, avg_doclen;
+    private double mle;
+    private IntBuffer docLengths;
+
+    private LeafScorer (PostingsCursor cursor, RetrievalModel r) throws IOException {
+      this.cursor = cursor;
+      this.r = r;
+      this.field = cursor.field;
+      this.docLengths = QryEval.dls.getDocLengths(field);
+
+      if (r instanceof RetrievalModelBM25) {
+	int df = cursor.cost();
+	double numDocs = QryEval.stats.numDocs;
+	double k3 = ((RetrievalModelBM25) r).getParameter("k_3");
+	int qtf = 1;
+
+	this.idf = Math.max(0, Math.log((numDocs - df + 0.5) / (df + 0.5)));
+	this.userWeight = (k3+1) * qtf / (k3+qtf);
+	this.avg_doclen = QryEval.stats.field(field).avgLength;
+      }
+      else if (r instanceof RetrievalModelIndri)
+	this.mle = (double) cursor.ctf / QryEval.stats.field(field).sumTotalTermFreq;
+    }
+
+    public int docID () {
+      return this.cursor.docID();
+    }
+
+    public int advance (int target) throws IOException {
+      if (this.cursor.docID() < target)
+	return this.cursor.advance(target);
+      return this.cursor.docID();
+    }
+
+    public double score (int docid) throws IOException {
+
+      int tf = this.cursor.freq();
+
+      if (r instanceof RetrievalModelUnrankedBoolean)
+	return (float) 1.0;
+      else if (r instanceof RetrievalModelRankedBoolean)
+	return (float) tf;
+      else if (r instanceof RetrievalModelBM25) {
+	double k1 = ((RetrievalModelBM25) r).getParameter("k_1");
+	double b = ((RetrievalModelBM25) r).getParameter("b");
+	long doclen = this.docLengths.get(docid);
+	double tfWeight = tf / (tf + k1*((1-b) + b*doclen/avg_doclen));
+
+	return (float) (idf*tfWeight*userWeight);
+      }
+      else if (r instanceof RetrievalModelIndri) {
+	double mu = ((RetrievalModelIndri) r).getMu();
+	double lambda = ((RetrievalModelIndri) r).getLambda();
+	long doclen = this.docLengths.get(docid);
+
+	return (float) ((1 - lambda) * ((tf + mu * mle) / (doclen + mu)) + lambda * mle);
+      }
+
+      return 0.0;
+    }
+
+    public double maxScore () {
+
+      //  The BM25 tf weight is at most 1, and rounding is monotonic, so
+      //  no document scores more than the idf and user weights alone.
+
+      if (r instanceof RetrievalModelBM25)
+	return (float) (idf*userWeight);
+      else if (r instanceof RetrievalModelUnrankedBoolean)
+	return (float) 1.0;
+
+      return Double.POSITIVE_INFINITY;
+    }
+
+    public double defaultScore (int docid) throws IOException {
+
+      if (r instanceof RetrievalModelIndri) {
+	double mu = ((RetrievalModelIndri) r).getMu();
+	double lambda = ((RetrievalModelIndri) r).getLambda();
+	long doclen = this.docLengths.get(docid);
+
+	return (1 - lambda) * (mu * mle) / (doclen + mu) + lambda * mle;
+      }
+
+      return 0.0;
+    }
+  }
+
+  /**
+   *  Add this operator's default score computation to a plan.
+   *  @param plan The plan being compiled.
+   *  @throws IOException
+   */
+  public void compileDefaultPlan (IndriDefaultPlan plan) throws IOException {
+
+    //  The operator may not have been evaluated, if a query cache
+    //  returned its parent's result.
+
+    if (! this.hasStats)
+      setStats (QryEval.evaluateArg (args.get(0), plan.model()).invertedList);
+
+    plan.addLeaf (this.field, this.ctf);
+  }
+
   public double getDefaultScore (RetrievalModel r, long docid) throws IOException {
 	  
 	  if (r instanceof RetrievalModelIndri) {
@@ -183,7 +363,7 @@ public class QryopSlScore extends QryopSl {
 		  double mu = ((RetrievalModelIndri) r).getMu();
 		  double lambda = ((RetrievalModelIndri) r).getLambda();
 		  DocLengthStore dls = QryEval.dls;
-	      double ctotallen = QryEval.READER.getSumTotalTermFreq(field);
+	      double ctotallen = QryEval.stats.field(field).sumTotalTermFreq;
 		  double mle = ctf / ctotallen;
 		  long doclen = dls.getDocLength(field, (int)docid);
 		  double score = (1 - lambda) * (mu * mle) / (doclen + mu) + lambda * mle;
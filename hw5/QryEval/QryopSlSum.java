@@ -44,29 +44,44 @@ public class QryopSlSum extends QryopSl{
 	  
 	  allocArgPtrs(r);
 	  QryResult result = new QryResult();
-	  HashMap<Integer, Double> idScoreHM = new HashMap<Integer, Double>();
-		
-	  for (int i=0; i < this.argPtrs.size(); i++) {
-			
-		  ArgPtr ptri = this.argPtrs.get(i);
-			
-		  for( ; ptri.nextDoc < ptri.scoreList.scores.size(); ptri.nextDoc++) {
-			  int docid = ptri.scoreList.getDocid(ptri.nextDoc);
-			  double score = ptri.scoreList.getDocidScore(ptri.nextDoc);
-			  if (idScoreHM.get(docid) == null)
-				  idScoreHM.put (docid, score);
-			  else {
-				  double prevScore = idScoreHM.get(docid);
-				  score = score + prevScore;
-				  idScoreHM.put(docid, score);										
-			  }						
+
+	  //  Wide queries add each argument's scores into an accumulator.
+	  //  The scores of a document are added in argument order either
+	  //  way.
+
+	  if (this.argPtrs.size() >= WIDE_ARGS) {
+		  ScoreAccumulator acc = accumulator();
+
+		  for (int i=0; i < this.argPtrs.size(); i++) {
+			  ScoreList sl = this.argPtrs.get(i).scoreList;
+			  for (int j=0; j < sl.scores.size(); j++)
+				  acc.add(sl.getDocid(j), sl.getDocidScore(j));
 		  }
+
+		  acc.toScoreList(result.docScores);
+		  ScoreAccumulator.release(acc);
+		  freeArgPtrs();
+		  return result;
 	  }
-		
-	  Iterator hashItr = idScoreHM.entrySet().iterator();
-	  while (hashItr.hasNext()) {
-		  Map.Entry<Integer, Double> pair = (Map.Entry) hashItr.next();
-		  result.docScores.add(pair.getKey(), pair.getValue());
+
+	  //  Merge the arguments' score lists with a heap keyed by each
+	  //  argument's current docid, so that the result is in docid
+	  //  order.  The heap returns the arguments that match a document
+	  //  in argument order, so the scores are added in that order.
+
+	  MergeHeap heap = mergeHeap();
+
+	  while (heap.size() > 0) {
+		  int docid = heap.topValue();
+		  double score = 0.0;
+
+		  while (heap.size() > 0 && heap.topValue() == docid) {
+			  ArgPtr ptri = this.argPtrs.get(heap.topStream());
+			  score = ptri.scoreList.getDocidScore(ptri.nextDoc) + score;
+			  nextMergeDoc(heap, ptri);
+		  }
+
+		  result.docScores.add(docid, score);
 	  }
 
 
@@ -74,6 +89,128 @@ public class QryopSlSum extends QryopSl{
 	  return result;
   }
 
+  /**
+   *  Create a scorer that evaluates this operator document-at-a-time.
+   *  A document's score is the sum of the scores of the arguments that
+   *  match it.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @return The scorer.
+   *  @throws IOException
+   */
+  public DocScorer docScorer(RetrievalModel r) throws IOException {
+
+	  if (! (r instanceof RetrievalModelBM25))
+		  return super.docScorer(r);
+
+	  return new DocScorer.Union(argScorers(r)) {
+		  public double score(int docid) throws IOException {
+			  double score = 0.0;
+			  for (int i=0; i < this.scorers.length; i++) {
+				  if (this.scorers[i].docID() == docid)
+					  score = this.scorers[i].score(docid) + score;
+			  }
+			  return score;
+		  }
+
+		  public double defaultScore(int docid) {
+			  return 0.0;
+		  }
+	  };
+  }
+
+  /**
+   *  Evaluates the query operator for BM25 when only the top k documents
+   *  are needed, using WAND dynamic pruning.  Each argument's scorer
+   *  provides an upper bound on its score.  The arguments are kept in
+   *  docid order, and a document is scored only if the upper bounds of
+   *  the arguments that may match it add up to at least the score of
+   *  the k'th best document found so far.  The other documents are
+   *  skipped with advance().  Documents that tie the k'th best score
+   *  are kept, so that ties can be broken later on external id.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @param k The number of documents that are needed.
+   *  @return The top k documents (and any ties), in no particular order.
+   *  @throws IOException
+   */
+  public QryResult evaluateWand(RetrievalModel r, int k) throws IOException {
+
+	  DocScorer[] scorers = argScorers(r);
+	  int argSize = scorers.length;
+
+	  //  ordered holds the arguments sorted by their current docid.
+
+	  DocScorer[] ordered = new DocScorer[argSize];
+	  for (int i=0; i < argSize; i++) {
+		  scorers[i].advance(0);
+		  ordered[i] = scorers[i];
+	  }
+
+	  TopKCollector topDocs = new TopKCollector(k);
+
+	  while (true) {
+
+		  //  Insertion sort is fast here, because at most a few
+		  //  arguments move between iterations.
+
+		  for (int i=1; i < argSize; i++) {
+			  DocScorer s = ordered[i];
+			  int j = i - 1;
+			  for ( ; j >= 0 && ordered[j].docID() > s.docID(); j--)
+				  ordered[j+1] = ordered[j];
+			  ordered[j+1] = s;
+		  }
+
+		  //  Find the pivot: the first argument at which the upper
+		  //  bounds of the arguments before it can reach the threshold.
+
+		  int pivot = -1;
+		  double bound = 0.0;
+		  for (int i=0; i < argSize; i++) {
+			  if (ordered[i].docID() == DocScorer.NO_MORE_DOCS)
+				  break;
+			  bound += ordered[i].maxScore();
+			  if (bound >= topDocs.threshold()) {
+				  pivot = i;
+				  break;
+			  }
+		  }
+
+		  if (pivot < 0)
+			  break;		// No remaining document can make the top k
+
+		  int pivotDocid = ordered[pivot].docID();
+
+		  if (ordered[0].docID() == pivotDocid) {
+
+			  //  Every argument before the pivot is on the pivot
+			  //  document, so score it.  Add the scores in argument
+			  //  order, as evaluateBM25 does.
+
+			  double score = 0.0;
+			  for (int i=0; i < argSize; i++) {
+				  if (scorers[i].docID() == pivotDocid)
+					  score = scorers[i].score(pivotDocid) + score;
+			  }
+
+			  topDocs.collect(pivotDocid, score);
+
+			  for (int i=0; i < argSize && ordered[i].docID() == pivotDocid; i++)
+				  ordered[i].advance(pivotDocid + 1);
+		  } else {
+
+			  //  The arguments before the pivot can't match any
+			  //  document before the pivot document.
+
+			  for (int i=0; i < pivot && ordered[i].docID() < pivotDocid; i++)
+				  ordered[i].advance(pivotDocid);
+		  }
+	  }
+
+	  QryResult result = new QryResult();
+	  result.docScores = topDocs.toScoreList();
+	  return result;
+  }
+
   public double getDefaultScore (RetrievalModel r, long docid) throws IOException {
 
 	    if (r instanceof RetrievalModelBM25)
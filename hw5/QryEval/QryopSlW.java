@@ -4,6 +4,9 @@ import java.util.ArrayList;
 
 public abstract class QryopSlW extends QryopSl {
 	public ArrayList<Double> weights;
+
+	// The weights divided by their sum, once they are normalized
+	private double[] normalizedWeights;
 	
 	public QryopSlW(Qryop... q) {
 		for (int i = 0; i < q.length; i++) {
@@ -18,6 +21,34 @@ public abstract class QryopSlW extends QryopSl {
 	
 	public void addWeight(Double w) {
 		this.weights.add(w);
+		this.normalizedWeights = null;
+	}
+
+	/**
+	 * Normalize the weights so that they sum to 1. The parser does this when
+	 * the operator is complete, so that evaluation doesn't divide by the
+	 * total weight for every document. If the weights sum to 0, they stay 0.
+	 */
+	public void normalizeWeights() {
+		double totalWeight = 0.0;
+		for (double weight : this.weights)
+			totalWeight += weight;
+
+		this.normalizedWeights = new double[this.weights.size()];
+		for (int i = 0; i < this.normalizedWeights.length; i++)
+			if (totalWeight > 0)
+				this.normalizedWeights[i] = this.weights.get(i) / totalWeight;
+	}
+
+	/**
+	 * Get the normalized weights, normalizing them if necessary.
+	 * 
+	 * @return The weights divided by their sum.
+	 */
+	public double[] normalizedWeights() {
+		if (this.normalizedWeights == null)
+			normalizeWeights();
+		return this.normalizedWeights;
 	}
 	
 	
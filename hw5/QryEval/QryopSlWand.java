@@ -24,9 +24,12 @@ public class QryopSlWand extends QryopSlW{
 			totalWeight += this.weights.get(i);
 		}
 		
+		double[] defaults = new double[argSize];
+		argDefaultPlan(r).argDefaults((int) docid, defaults);
+
 		for (int i = 0; i < argSize; i++) {
 			weight = this.weights.get(i);
-			score *= Math.pow(((QryopSl) this.args.get(i)).getDefaultScore(r, docid), weight/totalWeight);
+			score *= Math.pow(defaults[i], weight/totalWeight);
 		}
 		
 		if (totalWeight == 0) {
@@ -70,10 +73,16 @@ public class QryopSlWand extends QryopSlW{
 	    for (int j = 0; j < argSize; j++) {
 			argPtrArray[j] = this.argPtrs.get(j);
 	    } 
+
+	    // Default scores are computed for all the arguments at once, the
+	    // first time that an argument doesn't match a document.
+	    IndriDefaultPlan plan = argDefaultPlan(r);
+	    double[] defaults = new double[argSize];
 	    
 	    while (argCounter > 0) {
 			int minDocid = Integer.MAX_VALUE;
 			double score = 1.0;
+			boolean hasDefaults = false;
 			
 			// Find min docid
 			for (int i = 0; i < argSize; i++) {
@@ -98,7 +107,11 @@ public class QryopSlWand extends QryopSlW{
 				int docid = Integer.MAX_VALUE;
 				
 				if (curPtr.nextDoc >= curPtr.scoreList.scores.size()) {
-					score *= Math.pow(((QryopSl)this.args.get(i)).getDefaultScore(r, minDocid), this.weights.get(i)/totalWeight);
+					if (!hasDefaults) {
+						plan.argDefaults(minDocid, defaults);
+						hasDefaults = true;
+					}
+					score *= Math.pow(defaults[i], this.weights.get(i)/totalWeight);
 				}				
 				else if (curPtr.nextDoc < curPtr.scoreList.scores.size()) {
 					docid = curPtr.scoreList.getDocid(curPtr.nextDoc);
@@ -110,7 +123,11 @@ public class QryopSlWand extends QryopSlW{
 							argCounter --;
 						}
 					} else { // docid > minDocid
-						score *= Math.pow(((QryopSl)this.args.get(i)).getDefaultScore(r, minDocid), this.weights.get(i)/totalWeight);
+						if (!hasDefaults) {
+							plan.argDefaults(minDocid, defaults);
+							hasDefaults = true;
+						}
+						score *= Math.pow(defaults[i], this.weights.get(i)/totalWeight);
 					}
 				}				
 			}
@@ -124,10 +141,62 @@ public class QryopSlWand extends QryopSlW{
 	    return result;
 	}
 
+	/**
+	 * Create a scorer that evaluates this operator document-at-a-time.
+	 * Arguments that don't match a document contribute their default
+	 * scores to its weighted geometric mean.
+	 * 
+	 * @param r
+	 *            A retrieval model that controls how the operator behaves.
+	 * @return The scorer.
+	 * @throws IOException
+	 */
+	public DocScorer docScorer(final RetrievalModel r) throws IOException {
+
+		if (!(r instanceof RetrievalModelIndri))
+			return super.docScorer(r);
+
+		double weightSum = 0.0;
+		for (double weight : this.weights)
+			weightSum += weight;
+		final double totalWeight = weightSum;
+
+		DocScorer[] scorers = argScorers(r);
+
+		return new DocScorer.Union(scorers, argDefaultPlan(r)) {
+			public double score(int docid) throws IOException {
+				double score = 1.0;
+				for (int i = 0; i < this.scorers.length; i++)
+					score *= Math.pow(argScoreOrDefault(i, docid),
+							weights.get(i) / totalWeight);
+				return score;
+			}
+
+			public double defaultScore(int docid) throws IOException {
+				return getDefaultScore(r, docid);
+			}
+		};
+	}
+
+	/**
+	 * Compile the arguments into a default score plan, then combine them.
+	 */
+	public void compileDefaultPlan(IndriDefaultPlan plan)
+			throws IOException {
+		for (int i = 0; i < this.args.size(); i++)
+			argSl(i).compileDefaultPlan(plan);
+		plan.addWand(this.weights, this.args.size());
+	}
+
 	@Override
 	public String toString() {
-		// TODO Auto-generated method stub
-		return null;
+		String result = new String();
+
+		for (int i = 0; i < this.args.size(); i++)
+			result += this.weights.get(i) + " "
+					+ this.args.get(i).toString() + " ";
+
+		return ("#WAND( " + result + ")");
 	}
 
 
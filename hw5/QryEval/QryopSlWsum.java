@@ -22,10 +22,13 @@ public class QryopSlWsum extends QryopSlW{
 		double totalWeight = 0.0;
 				
 		int argSize = this.args.size();
+		double[] defaults = new double[argSize];
+		argDefaultPlan(r).argDefaults((int) docid, defaults);
+
 		for (int i = 0; i < argSize; i++) {
 			weight = this.weights.get(i);
 			totalWeight += weight;
-			score += ((QryopSl) this.args.get(i)).getDefaultScore(r, docid) * weight;
+			score += defaults[i] * weight;
 		}
 		
 		if (totalWeight > 0) {
@@ -77,10 +80,16 @@ public class QryopSlWsum extends QryopSlW{
 	    for (int j = 0; j < argSize; j++) {
 			argPtrArray[j] = this.argPtrs.get(j);
 	    } 
+
+	    // Default scores are computed for all the arguments at once, the
+	    // first time that an argument doesn't match a document.
+	    IndriDefaultPlan plan = argDefaultPlan(r);
+	    double[] defaults = new double[argSize];
 	   
 	    while (argCounter > 0) {
 			int minDocid = Integer.MAX_VALUE;
 			double score = 0.0;
+			boolean hasDefaults = false;
 			
 			// Find min docid
 			for (int i = 0; i < argSize; i++) {
@@ -105,9 +114,11 @@ public class QryopSlWsum extends QryopSlW{
 				int docid = Integer.MAX_VALUE;
 				
 				if (curPtr.nextDoc >= curPtr.scoreList.scores.size()) {
-					//System.err.println("call");
-					double test = ((QryopSl)this.args.get(i)).getDefaultScore(r, minDocid);
-					score += ((QryopSl)this.args.get(i)).getDefaultScore(r, minDocid) * this.weights.get(i)/totalWeight;
+					if (!hasDefaults) {
+						plan.argDefaults(minDocid, defaults);
+						hasDefaults = true;
+					}
+					score += defaults[i] * this.weights.get(i)/totalWeight;
 				}				
 				else if (curPtr.nextDoc < curPtr.scoreList.scores.size()) {
 					docid = curPtr.scoreList.getDocid(curPtr.nextDoc);
@@ -119,7 +130,11 @@ public class QryopSlWsum extends QryopSlW{
 							argCounter --;
 						}
 					} else { // docid > minDocid
-						score += ((QryopSl)this.args.get(i)).getDefaultScore(r, minDocid) * this.weights.get(i)/totalWeight;
+						if (!hasDefaults) {
+							plan.argDefaults(minDocid, defaults);
+							hasDefaults = true;
+						}
+						score += defaults[i] * this.weights.get(i)/totalWeight;
 					}
 				}
 				
@@ -134,10 +149,62 @@ public class QryopSlWsum extends QryopSlW{
 	    return result;
 	}
 
+	/**
+	 * Create a scorer that evaluates this operator document-at-a-time.
+	 * Arguments that don't match a document contribute their default
+	 * scores to its weighted mean.
+	 * 
+	 * @param r
+	 *            A retrieval model that controls how the operator behaves.
+	 * @return The scorer.
+	 * @throws IOException
+	 */
+	public DocScorer docScorer(final RetrievalModel r) throws IOException {
+
+		if (!(r instanceof RetrievalModelIndri))
+			return super.docScorer(r);
+
+		double weightSum = 0.0;
+		for (double weight : this.weights)
+			weightSum += weight;
+		final double totalWeight = weightSum;
+
+		DocScorer[] scorers = argScorers(r);
+
+		return new DocScorer.Union(scorers, argDefaultPlan(r)) {
+			public double score(int docid) throws IOException {
+				double score = 0.0;
+				for (int i = 0; i < this.scorers.length; i++)
+					score += argScoreOrDefault(i, docid)
+							* weights.get(i) / totalWeight;
+				return score;
+			}
+
+			public double defaultScore(int docid) throws IOException {
+				return getDefaultScore(r, docid);
+			}
+		};
+	}
+
+	/**
+	 * Compile the arguments into a default score plan, then combine them.
+	 */
+	public void compileDefaultPlan(IndriDefaultPlan plan)
+			throws IOException {
+		for (int i = 0; i < this.args.size(); i++)
+			argSl(i).compileDefaultPlan(plan);
+		plan.addWsum(this.weights, this.args.size());
+	}
+
 	@Override
 	public String toString() {
-		// TODO Auto-generated method stub
-		return null;
+		String result = new String();
+
+		for (int i = 0; i < this.args.size(); i++)
+			result += this.weights.get(i) + " "
+					+ this.args.get(i).toString() + " ";
+
+		return ("#WSUM( " + result + ")");
 	}
 
 
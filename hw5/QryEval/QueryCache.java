@@ -0,0 +1,57 @@
+/**
+ * QueryCache keeps the results of queries and query operators, so that
+ * a query or subquery that is evaluated again in the same run (the same
+ * base query with different feedback settings, a #SYN or #NEAR that
+ * appears in several queries) is only evaluated once.
+ *
+ * Results are keyed by the retrieval model and the operator tree's
+ * string form, which is canonical: operator names, arguments, weights
+ * and fields.  The cache holds at most a fixed number of bytes, as
+ * estimated by sizeOf, and evicts the least recently used results
+ * first.  Cached results are shared, so callers must not modify them.
+ */
+public class QueryCache extends LruCache<String, QryResult> {
+
+  /**
+   * @param maxBytes The most memory that cached results may use.
+   */
+  public QueryCache(long maxBytes) {
+    super(maxBytes);
+  }
+
+  /**
+   * Returns the cache key of a query operator.
+   *
+   * @param q The query operator.
+   * @param r The retrieval model that it is evaluated with.
+   */
+  public static String key(Qryop q, RetrievalModel r) {
+    return r + " " + q;
+  }
+
+  /**
+   * Cache a result, evicting least recently used results until it
+   * fits.  Results larger than the whole cache are not cached.
+   *
+   * @param key The cache key.
+   * @param result The result, which must not be modified afterwards.
+   */
+  public void put(String key, QryResult result) {
+    put(key, result, sizeOf(result) + 2L * key.length());
+  }
+
+  /**
+   * Estimate the memory that a result uses: the inverted list's
+   * arrays and the score list's entries.
+   *
+   * @param result The result.
+   */
+  public static long sizeOf(QryResult result) {
+    return 16 + result.invertedList.memoryUsage()
+      + 40L * result.docScores.scores.size();
+  }
+
+  public String toString() {
+    return "Query cache: " + super.toString();
+  }
+}
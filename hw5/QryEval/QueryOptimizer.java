@@ -0,0 +1,76 @@
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * QueryOptimizer rewrites parsed query trees before they are evaluated.
+ *
+ * Common subexpression elimination: identical subtrees, for example a
+ * term that a feedback query repeats inside its learned #WAND, or the
+ * same #NEAR/3(a b) in two places, are replaced by a single shared
+ * operator, which turns the tree into a DAG. A shared operator keeps its
+ * result the first time that it is evaluated (see QryEval.evaluateArg),
+ * so each unique subexpression is evaluated once per query.
+ */
+public class QueryOptimizer {
+
+	// Totals over all queries, for the report at the end of a run
+	private static AtomicLong mergedOperators = new AtomicLong();
+	private static AtomicLong savedEvaluations = new AtomicLong();
+
+	/**
+	 * Replace identical subtrees of a query tree with one shared operator.
+	 * Subtrees are identical if their string forms are.
+	 *
+	 * @param q
+	 *            The query tree, which is modified.
+	 * @return The number of operators that were replaced.
+	 */
+	public static int eliminateCommonSubexpressions(Qryop q) {
+		int merged = share(q, new HashMap<String, Qryop>());
+		mergedOperators.addAndGet(merged);
+		return merged;
+	}
+
+	/**
+	 * Share the arguments of an operator, bottom up, so that the arguments
+	 * of an operator are already shared when it is compared.
+	 */
+	private static int share(Qryop q, Map<String, Qryop> unique) {
+		int merged = 0;
+
+		for (int i = 0; i < q.args.size(); i++) {
+			Qryop arg = q.args.get(i);
+			merged += share(arg, unique);
+
+			String key = arg.toString();
+			Qryop first = unique.get(key);
+
+			if (first == null)
+				unique.put(key, arg);
+			else if (first != arg) {
+				q.args.set(i, first);
+				first.shared = true;
+				merged++;
+			}
+		}
+
+		return merged;
+	}
+
+	/**
+	 * Record that a shared operator's result was used again instead of
+	 * evaluating the operator.
+	 */
+	static void evaluationSaved() {
+		savedEvaluations.incrementAndGet();
+	}
+
+	/**
+	 * Report the operators merged and the evaluations saved so far.
+	 */
+	public static String report() {
+		return "Common subexpressions: " + mergedOperators.get()
+				+ " operators merged, " + savedEvaluations.get()
+				+ " evaluations saved";
+	}
+}
@@ -0,0 +1,231 @@
+import java.io.IOException;
+import java.util.*;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * QueryPlanner chooses the order in which conjunctive operators (#AND for
+ * the Boolean models, #NEAR and #WINDOW) intersect their arguments,
+ * before the arguments are evaluated.
+ *
+ * The planner estimates each argument's df and ctf from the index
+ * statistics of its terms. A term's estimate is exact; an operator's is
+ * an upper bound (for example, a #NEAR matches at most as many documents
+ * as its rarest argument). A conjunction with an argument whose estimate
+ * is 0 is provably empty, so it is not evaluated at all. Otherwise the
+ * arguments are intersected rarest first: the rarest argument leads,
+ * and the others advance to its documents.
+ *
+ * The operators always intersect with PostingsCursor.advance, which steps
+ * through short gaps and skips long ones. The MERGE and GALLOP labels of
+ * a plan are explain output only: they say whether the lists are close
+ * in length or the longer lists are mostly skipped. Only EMPTY changes
+ * how a conjunction is evaluated.
+ *
+ * The order is only the order in which documents are matched. #NEAR and
+ * #WINDOW still compare positions in their arguments' order.
+ */
+public class QueryPlanner {
+
+	/**
+	 * The kind of a conjunction's intersection. An EMPTY conjunction is
+	 * not evaluated; MERGE and GALLOP are only reported by explain.
+	 */
+	public enum Strategy {
+		EMPTY, // Some argument matches no documents
+		MERGE, // The lists are close in length
+		GALLOP // The longest list is much longer than the shortest
+	}
+
+	// Report a gallop when the longest list is this many times the
+	// shortest.
+	private static final int GALLOP_RATIO = 16;
+
+	/**
+	 * The estimated statistics of an operator's result.
+	 */
+	public static class Estimate {
+		public long df;
+		public long ctf;
+
+		// The field of the inverted list, or null for a score list
+		public String field;
+
+		Estimate(long df, long ctf, String field) {
+			this.df = df;
+			this.ctf = ctf;
+			this.field = field;
+		}
+	}
+
+	/**
+	 * The plan of a conjunction.
+	 */
+	public static class Plan {
+
+		// The arguments' indexes, in the order to intersect them
+		public final int[] order;
+
+		public final Strategy strategy;
+
+		// The arguments' estimates, by argument index
+		public final Estimate[] estimates;
+
+		Plan(int[] order, Strategy strategy, Estimate[] estimates) {
+			this.order = order;
+			this.strategy = strategy;
+			this.estimates = estimates;
+		}
+	}
+
+	/**
+	 * Plan a conjunction of an operator's arguments.
+	 *
+	 * @param q
+	 *            The operator.
+	 * @return The plan.
+	 * @throws IOException
+	 */
+	public static Plan conjunction(Qryop q) throws IOException {
+
+		int n = q.args.size();
+		final Estimate[] estimates = new Estimate[n];
+		Integer[] order = new Integer[n];
+		long minDf = Long.MAX_VALUE;
+		long maxDf = 0;
+
+		for (int i = 0; i < n; i++) {
+			estimates[i] = estimate(q.args.get(i));
+			order[i] = i;
+			minDf = Math.min(minDf, estimates[i].df);
+			maxDf = Math.max(maxDf, estimates[i].df);
+		}
+
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer i1, Integer i2) {
+				long df1 = estimates[i1].df;
+				long df2 = estimates[i2].df;
+				return (df1 < df2) ? -1 : ((df1 == df2) ? 0 : 1);
+			}
+		});
+
+		Strategy strategy;
+		if (n == 0 || minDf == 0)
+			strategy = Strategy.EMPTY;
+		else if (maxDf >= GALLOP_RATIO * minDf)
+			strategy = Strategy.GALLOP;
+		else
+			strategy = Strategy.MERGE;
+
+		int[] indexes = new int[n];
+		for (int i = 0; i < n; i++)
+			indexes[i] = order[i];
+
+		return new Plan(indexes, strategy, estimates);
+	}
+
+	/**
+	 * Estimate the df and ctf of an operator's result from the index.
+	 *
+	 * @param q
+	 *            The operator.
+	 * @return The estimate.
+	 * @throws IOException
+	 */
+	public static Estimate estimate(Qryop q) throws IOException {
+
+		long numDocs = QryEval.stats.numDocs;
+
+		if (q instanceof QryopIlTerm) {
+			QryopIlTerm t = (QryopIlTerm) q;
+			Term term = new Term(t.getField(), new BytesRef(t.getTerm()));
+			return new Estimate(TermStatsCache.docFreq(term),
+					Math.max(0, TermStatsCache.totalTermFreq(term)),
+					t.getField());
+		}
+
+		if (q instanceof QryopSlScore && q.args.size() == 1)
+			return estimate(q.args.get(0));
+
+		boolean conjunctive = (q instanceof QryopIlNear
+				|| q instanceof QryopIlWindow || q instanceof QryopSlAnd);
+		boolean disjunctive = (q instanceof QryopIlSyn
+				|| q instanceof QryopSlOr || q instanceof QryopSlSum
+				|| q instanceof QryopSlIndriAnd || q instanceof QryopSlW);
+
+		if (!conjunctive && !disjunctive)
+			return new Estimate(numDocs, Long.MAX_VALUE, null);
+
+		Estimate e = conjunctive ? new Estimate(numDocs, Long.MAX_VALUE, null)
+				: new Estimate(0, 0, null);
+
+		for (Qryop arg : q.args) {
+			Estimate a = estimate(arg);
+			if (e.field == null && q instanceof QryopIl)
+				e.field = a.field;
+			if (conjunctive) {
+				e.df = Math.min(e.df, a.df);
+				e.ctf = Math.min(e.ctf, a.ctf);
+			} else {
+				e.df = Math.min(numDocs, e.df + a.df);
+				e.ctf = (a.ctf == Long.MAX_VALUE) ? a.ctf : e.ctf + a.ctf;
+			}
+		}
+
+		if (q.args.size() == 0)
+			e.df = e.ctf = 0;
+		return e;
+	}
+
+	/**
+	 * Describe the plans of a query tree's conjunctions, one operator per
+	 * line, indented by depth.
+	 *
+	 * @param q
+	 *            The query tree.
+	 * @return The description.
+	 * @throws IOException
+	 */
+	public static String explain(Qryop q) throws IOException {
+		StringBuilder out = new StringBuilder();
+		explain(q, "", out);
+		return out.toString();
+	}
+
+	private static void explain(Qryop q, String indent, StringBuilder out)
+			throws IOException {
+
+		Estimate e = estimate(q);
+		out.append(indent).append(name(q)).append("  df");
+		out.append((q instanceof QryopIlTerm) ? "=" : "<=").append(e.df);
+		if (e.ctf != Long.MAX_VALUE)
+			out.append(" ctf").append((q instanceof QryopIlTerm) ? "=" : "<=")
+					.append(e.ctf);
+
+		List<Qryop> args = q.args;
+
+		if (q instanceof QryopSlAnd || q instanceof QryopIlNear
+				|| q instanceof QryopIlWindow) {
+			Plan plan = conjunction(q);
+			out.append("  ").append(plan.strategy);
+
+			args = new ArrayList<Qryop>();
+			for (int i : plan.order)
+				args.add(q.args.get(i));
+		}
+		out.append("\n");
+
+		for (Qryop arg : args)
+			explain(arg, indent + "  ", out);
+	}
+
+	/**
+	 * The name of an operator, without its arguments.
+	 */
+	private static String name(Qryop q) {
+		String s = q.toString();
+		int paren = s.indexOf('(');
+		return (paren < 0) ? s : s.substring(0, paren);
+	}
+}
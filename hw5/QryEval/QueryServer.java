@@ -0,0 +1,120 @@
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.*;
+
+/**
+ * QueryServer answers queries over local socket connections, so that the
+ * index, the document length store and the document id map are opened
+ * once and stay warm between queries.
+ *
+ * A client sends queries in the query file format, one per line:
+ *
+ * QueryID:query
+ *
+ * For each query, the server writes the ranking in trec_eval format,
+ * followed by an empty line. An empty line or the end of input closes
+ * the connection. Connections are handled concurrently, one per worker
+ * thread; the queries on one connection are answered in order.
+ */
+public class QueryServer {
+
+	private int port;
+	private int threads;
+	private QryEval.QueryTask settings;
+
+	/**
+	 * @param port
+	 *            The port to listen on. Only loopback connections are
+	 *            accepted.
+	 * @param threads
+	 *            The number of connections that are served at a time.
+	 * @param settings
+	 *            The retrieval model and feedback settings for each query.
+	 */
+	public QueryServer(int port, int threads, QryEval.QueryTask settings) {
+		this.port = port;
+		this.threads = threads;
+		this.settings = settings;
+	}
+
+	/**
+	 * Accept connections until the process is stopped.
+	 *
+	 * @throws IOException
+	 */
+	public void run() throws IOException {
+
+		ServerSocket serverSocket = new ServerSocket(this.port, 50,
+				InetAddress.getByName(null));
+		ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+
+		System.err.println("Listening on "
+				+ serverSocket.getLocalSocketAddress());
+
+		try {
+			while (true) {
+				final Socket socket = serverSocket.accept();
+
+				pool.execute(new Runnable() {
+					public void run() {
+						try {
+							serve(socket);
+						} catch (Exception e) {
+							e.printStackTrace();
+						} finally {
+							try {
+								socket.close();
+							} catch (IOException e) {
+							}
+						}
+					}
+				});
+			}
+		} finally {
+			pool.shutdownNow();
+			serverSocket.close();
+		}
+	}
+
+	/**
+	 * Answer the queries on one connection.
+	 *
+	 * @param socket
+	 *            The connection.
+	 * @throws Exception
+	 */
+	private void serve(Socket socket) throws Exception {
+
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				socket.getInputStream(), "UTF-8"));
+		Writer out = new BufferedWriter(new OutputStreamWriter(
+				socket.getOutputStream(), "UTF-8"));
+		String line;
+
+		while ((line = in.readLine()) != null && line.trim().length() > 0) {
+
+			int colonIndex = line.indexOf(':');
+			String response;
+
+			if (colonIndex < 0)
+				response = "Error: expected QueryID:query, got " + line;
+			else {
+				QryEval.QueryTask task = new QryEval.QueryTask(this.settings);
+				task.queryID = line.substring(0, colonIndex);
+				task.content = line.substring(colonIndex + 1);
+
+				try {
+					response = task.call().toString();
+				} catch (Exception e) {
+					response = "Error: " + e;
+				}
+			}
+
+			out.write(response);
+			if (!response.endsWith("\n"))
+				out.write("\n");
+			out.write("\n");
+			out.flush();
+		}
+	}
+}
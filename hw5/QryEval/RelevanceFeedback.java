@@ -0,0 +1,269 @@
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * RelevanceFeedback learns the expansion terms of a query from its top
+ * documents (Indri-style pseudo-relevance feedback). A term's score is
+ *
+ * sum over feedback docs d of p(t|d) * score(d) * log(1 / p(t|C))
+ *
+ * where p(t|d) is Dirichlet smoothed with fbMu. The score has two parts:
+ * the documents that contain the term, and the smoothing mass
+ * fbMu * p(t|C) / (|d| + fbMu) that every feedback document gives it.
+ * The second part factors into p(t|C) * log(1 / p(t|C)) times a sum over
+ * the feedback documents that is the same for every term, so it is
+ * computed once per term in closed form instead of once per term per
+ * document.
+ *
+ * Each feedback document's term vector is read once, with its stems and
+ * their tfs but without positions (TermVector.Detail.STEMS). If
+ * QryEval.feedbackPool is set, the documents are read in parallel on it;
+ * they are still added in rank order, so the result doesn't depend on
+ * the pool. Terms get integer ids in the order that they are first seen,
+ * and their scores are kept in arrays indexed by id. A term's ctf is
+ * looked up when it gets its id. The top terms are selected with a heap
+ * of fbTerms ids.
+ *
+ * If the body field's Lexicon is preloaded, a stem is found by its
+ * termId in an int hash table, and its string is only made the first
+ * time that it is seen; otherwise it is found by its string.
+ */
+public class RelevanceFeedback {
+
+	// Values in termIds that aren't term ids
+	private static final int ABSENT = -1;
+	private static final int EXCLUDED = -2; // Terms with periods or commas
+
+	private final int fbMu;
+	private final double ctotallen;
+
+	// The sum over the feedback documents of score(d) / (|d| + fbMu)
+	private double defaultMass = 0.0;
+
+	// Term ids, by string and by lexicon termId
+	private Map<String, Integer> ids = new HashMap<String, Integer>();
+	private IntIntMap termIds = new IntIntMap(512);
+	private String[] terms = new String[256];
+	private double[] idf = new double[256];
+	private double[] scores = new double[256];
+	private int numTerms = 0;
+
+	/**
+	 * @param fbMu
+	 *            The Dirichlet smoothing parameter.
+	 */
+	public RelevanceFeedback(int fbMu) {
+		this.fbMu = fbMu;
+		this.ctotallen = QryEval.stats.field("body").sumTotalTermFreq;
+	}
+
+	/**
+	 * Learn the expansion terms from the feedback documents.
+	 *
+	 * @param docids
+	 *            The internal ids of the feedback documents.
+	 * @param docScores
+	 *            The documents' scores, as probabilities.
+	 * @throws IOException
+	 */
+	public void addDocuments(int[] docids, double[] docScores)
+			throws IOException {
+
+		// The smoothing mass must be complete before a term's default
+		// score is computed, so it is summed before any document is read.
+		for (int i = 0; i < docids.length; i++) {
+			long doclen = QryEval.dls.getDocLength("body", docids[i]);
+			this.defaultMass += docScores[i] / ((double) doclen + this.fbMu);
+		}
+
+		ExecutorService pool = QryEval.feedbackPool;
+
+		if (pool == null || docids.length < 2) {
+			for (int i = 0; i < docids.length; i++)
+				addDocument(docids[i], docScores[i], TermVector.open(docids[i],
+						"body", TermVector.Detail.STEMS));
+			return;
+		}
+
+		List<Future<TermVector>> futures = new ArrayList<Future<TermVector>>();
+		for (int i = 0; i < docids.length; i++) {
+			final int docid = docids[i];
+			futures.add(pool.submit(new Callable<TermVector>() {
+				public TermVector call() throws IOException {
+					return TermVector.open(docid, "body",
+							TermVector.Detail.STEMS);
+				}
+			}));
+		}
+
+		try {
+			for (int i = 0; i < docids.length; i++)
+				addDocument(docids[i], docScores[i], futures.get(i).get());
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		} finally {
+			for (Future<TermVector> f : futures)
+				f.cancel(true);
+		}
+	}
+
+	private void addDocument(int docid, double docScore, TermVector tv)
+			throws IOException {
+
+		long doclen = QryEval.dls.getDocLength("body", docid);
+		int stemlen = tv.stemsLength();
+
+		for (int j = 1; j < stemlen; j++) {
+			int termId = tv.stemId(j);
+			int id;
+
+			if (termId >= 0) {
+				id = this.termIds.get(termId, ABSENT);
+				if (id == ABSENT) {
+					String term = tv.stemString(j);
+					id = excluded(term) ? EXCLUDED : newTerm(term,
+							tv.totalStemFreq(j));
+					this.termIds.put(termId, id);
+				}
+			} else {
+				String term = tv.stemString(j);
+				if (excluded(term))
+					continue;
+				Integer i = this.ids.get(term);
+				if (i == null) {
+					id = newTerm(term, tv.totalStemFreq(j));
+					this.ids.put(term, id);
+				} else
+					id = i;
+			}
+			if (id == EXCLUDED)
+				continue;
+
+			double ptd = ((double) tv.stemFreq(j))
+					/ ((double) doclen + this.fbMu);
+
+			this.scores[id] = ptd * docScore * this.idf[id] + this.scores[id];
+		}
+	}
+
+	/**
+	 * Terms with periods or commas are not expansion terms.
+	 */
+	private static boolean excluded(String term) {
+		return term.indexOf('.') >= 0 || term.indexOf(',') >= 0;
+	}
+
+	/**
+	 * Give a term an id, and start its score at its default score.
+	 */
+	private int newTerm(String term, long ctf) {
+		int id = this.numTerms++;
+
+		if (id == this.terms.length) {
+			int capacity = 2 * id;
+			this.terms = Arrays.copyOf(this.terms, capacity);
+			this.idf = Arrays.copyOf(this.idf, capacity);
+			this.scores = Arrays.copyOf(this.scores, capacity);
+		}
+
+		double ptc = (double) ctf / this.ctotallen;
+
+		this.terms[id] = term;
+		this.idf[id] = Math.log(1 / ptc);
+		this.scores[id] = this.fbMu * ptc * this.defaultMass * this.idf[id];
+		return id;
+	}
+
+	/**
+	 * The learned query: the top n terms, as a #WAND of term weights in
+	 * increasing weight order.
+	 *
+	 * @param n
+	 *            The number of terms (fbTerms).
+	 * @return The learned query.
+	 */
+	public String learnedQuery(int n) {
+		int[] top = topTerms(n);
+
+		StringBuffer learnedQuery = new StringBuffer();
+		learnedQuery.append("#WAND (");
+		for (int i = top.length - 1; i >= 0; i--) {
+			String formatScore = String.format("%.4f", this.scores[top[i]]);
+			learnedQuery.append(formatScore).append(" ")
+					.append(this.terms[top[i]]).append(" ");
+		}
+		learnedQuery.append(")");
+		return learnedQuery.toString();
+	}
+
+	/**
+	 * Select the n highest scoring terms with a min-heap of n ids. Terms
+	 * with equal scores are ranked in the order that they were first seen.
+	 *
+	 * @return The ids of the terms, best first.
+	 */
+	private int[] topTerms(int n) {
+		int size = 0;
+		int[] heap = new int[Math.min(n, this.numTerms)];
+
+		for (int id = 0; id < this.numTerms; id++) {
+			if (size < heap.length) {
+				heap[size] = id;
+				upHeap(heap, size++);
+			} else if (heap.length > 0 && worse(heap[0], id)) {
+				heap[0] = id;
+				downHeap(heap, 0, size);
+			}
+		}
+
+		// Removing the worst term repeatedly leaves the best term first.
+		for (int last = size - 1; last > 0; last--) {
+			int worst = heap[0];
+			heap[0] = heap[last];
+			heap[last] = worst;
+			downHeap(heap, 0, last);
+		}
+		return heap;
+	}
+
+	/**
+	 * True if term a ranks below term b.
+	 */
+	private boolean worse(int a, int b) {
+		return (this.scores[a] < this.scores[b])
+				|| (this.scores[a] == this.scores[b] && a > b);
+	}
+
+	private void upHeap(int[] heap, int i) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!worse(heap[i], heap[parent]))
+				break;
+			int tmp = heap[i];
+			heap[i] = heap[parent];
+			heap[parent] = tmp;
+			i = parent;
+		}
+	}
+
+	private void downHeap(int[] heap, int i, int size) {
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size)
+				break;
+			if (child + 1 < size && worse(heap[child + 1], heap[child]))
+				child++;
+			if (!worse(heap[child], heap[i]))
+				break;
+			int tmp = heap[i];
+			heap[i] = heap[child];
+			heap[child] = tmp;
+			i = child;
+		}
+	}
+}
@@ -33,5 +33,9 @@ public class RetrievalModelBM25 extends RetrievalModel {
 			  return -1;
 		  }
 	  }
+
+	 public String toString () {
+		 return "BM25(k_1=" + k1 + ",b=" + b + ",k_3=" + k3 + ")";
+	 }
 	
 }
\ No newline at end of file
@@ -2,6 +2,7 @@
 public class RetrievalModelIndri extends RetrievalModel {
 	private int mu;
 	private double lambda;
+	private boolean logSpace = false;
 	
 	public RetrievalModelIndri(int mu, double lambda) {
 		this.mu = mu;		
@@ -15,6 +16,10 @@ public class RetrievalModelIndri extends RetrievalModel {
 	}
 	
 	public boolean setParameter (String parameterName, String value) {
+		if (parameterName.equals("logSpace")) {
+			this.logSpace = Boolean.parseBoolean(value);
+			return true;
+		}
 		System.err.println("Error: Unknown parameter name for retrieval model" +
 						   "Indri: " + parameterName);
 		return false;
@@ -28,4 +33,16 @@ public class RetrievalModelIndri extends RetrievalModel {
 	 public double getLambda () {
 		 return lambda;
 	 }
+
+	 /**
+	  * @return True if queries are scored in log space (see IndriLogEvaluator).
+	  */
+	 public boolean isLogSpace () {
+		 return logSpace;
+	 }
+
+	 public String toString () {
+		 return "Indri(mu=" + mu + ",lambda=" + lambda + ",logSpace="
+				 + logSpace + ")";
+	 }
 }
\ No newline at end of file
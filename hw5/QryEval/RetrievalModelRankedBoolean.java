@@ -10,5 +10,9 @@ public class RetrievalModelRankedBoolean extends RetrievalModel {
 						   "RankedBoolean: " + parameterName);
 		return false;
 	}
+
+	public String toString () {
+		return "RankedBoolean";
+	}
 }
 		
@@ -32,4 +32,8 @@ public class RetrievalModelUnrankedBoolean extends RetrievalModel {
     return false;
   }
 
+  public String toString () {
+    return "UnrankedBoolean";
+  }
+
 }
@@ -0,0 +1,196 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * ScoreAccumulator collects the scores of documents term-at-a-time, for
+ * disjunctive operators that combine many score lists (#SUM, #OR). Its
+ * representation depends on how many documents it is expected to hold:
+ *
+ * Dense: a double[] indexed by docid, with a bitset of the documents
+ * that have a score. Adding a score is an array store, and the documents
+ * come out in docid order by walking the bitset.
+ *
+ * Sparse: the docids and scores in the order that the documents were
+ * first seen, with an IntIntMap from docid to that position, for
+ * results that are a small part of the collection. The docids are
+ * sorted when the scores are read out.
+ *
+ * Accumulators are pooled per thread and reused, so their arrays are
+ * allocated once per thread, not once per query. Each evaluation
+ * acquires its own accumulator and releases it when it is done.
+ */
+public class ScoreAccumulator {
+
+	// Use the dense form if at least 1 document in this many may match.
+	// The bitset walk then costs less than sorting the docids.
+	private static final int DENSE_RATIO = 32;
+
+	private static final ThreadLocal<ArrayDeque<ScoreAccumulator>> DENSE = new ThreadLocal<ArrayDeque<ScoreAccumulator>>() {
+		protected ArrayDeque<ScoreAccumulator> initialValue() {
+			return new ArrayDeque<ScoreAccumulator>();
+		}
+	};
+
+	private static final ThreadLocal<ArrayDeque<ScoreAccumulator>> SPARSE = new ThreadLocal<ArrayDeque<ScoreAccumulator>>() {
+		protected ArrayDeque<ScoreAccumulator> initialValue() {
+			return new ArrayDeque<ScoreAccumulator>();
+		}
+	};
+
+	private final boolean dense;
+
+	// Dense form: scores[docid], and a bit per document that has a score
+	private double[] scores;
+	private long[] touched;
+
+	// Sparse form: docids[i] and values[i] for the i'th document seen,
+	// and each docid's i
+	private IntIntMap index;
+	private int[] docids;
+	private double[] values;
+
+	// The number of documents that have a score
+	private int size = 0;
+
+	private ScoreAccumulator(boolean dense, int capacity) {
+		this.dense = dense;
+
+		if (dense) {
+			this.scores = new double[capacity];
+			this.touched = new long[(capacity + 63) >>> 6];
+		} else {
+			this.index = new IntIntMap(capacity);
+			this.docids = new int[Math.max(16, capacity)];
+			this.values = new double[this.docids.length];
+		}
+	}
+
+	/**
+	 * Take an accumulator from this thread's pool, or create one.
+	 *
+	 * @param maxDoc
+	 *            The number of documents in the index.
+	 * @param estimatedDocs
+	 *            The estimated number of documents that will have scores.
+	 * @return The accumulator, which is empty.
+	 */
+	public static ScoreAccumulator acquire(int maxDoc, long estimatedDocs) {
+		boolean dense = (estimatedDocs * DENSE_RATIO >= maxDoc);
+		ScoreAccumulator acc = (dense ? DENSE : SPARSE).get().poll();
+
+		if (acc == null || (dense && acc.scores.length < maxDoc))
+			acc = new ScoreAccumulator(dense, dense ? maxDoc
+					: (int) Math.min(estimatedDocs, maxDoc));
+		return acc;
+	}
+
+	/**
+	 * Return an accumulator to this thread's pool.
+	 *
+	 * @param acc
+	 *            The accumulator, which must be empty (see toScoreList).
+	 */
+	public static void release(ScoreAccumulator acc) {
+		(acc.dense ? DENSE : SPARSE).get().push(acc);
+	}
+
+	/**
+	 * Add a score to a document's score. A document's first score is
+	 * stored as is.
+	 *
+	 * @param docid
+	 *            The internal document id.
+	 * @param score
+	 *            The score.
+	 */
+	public void add(int docid, double score) {
+		if (this.dense) {
+			int word = docid >>> 6;
+			long bit = 1L << docid;
+
+			if ((this.touched[word] & bit) == 0) {
+				this.touched[word] |= bit;
+				this.scores[docid] = score;
+				this.size++;
+			} else
+				this.scores[docid] = score + this.scores[docid];
+		} else {
+			int i = this.index.get(docid, -1);
+
+			if (i < 0)
+				insert(docid, score);
+			else
+				this.values[i] = score + this.values[i];
+		}
+	}
+
+	/**
+	 * Keep the higher of a document's score and a new score. A
+	 * document's first score is stored as is.
+	 *
+	 * @param docid
+	 *            The internal document id.
+	 * @param score
+	 *            The score.
+	 */
+	public void max(int docid, double score) {
+		if (this.dense) {
+			int word = docid >>> 6;
+			long bit = 1L << docid;
+
+			if ((this.touched[word] & bit) == 0) {
+				this.touched[word] |= bit;
+				this.scores[docid] = score;
+				this.size++;
+			} else if (this.scores[docid] < score)
+				this.scores[docid] = score;
+		} else {
+			int i = this.index.get(docid, -1);
+
+			if (i < 0)
+				insert(docid, score);
+			else if (this.values[i] < score)
+				this.values[i] = score;
+		}
+	}
+
+	/**
+	 * Append the scores to a score list in docid order, and empty the
+	 * accumulator so that it can be reused.
+	 *
+	 * @param list
+	 *            The score list.
+	 */
+	public void toScoreList(ScoreList list) {
+		if (this.dense) {
+			for (int word = 0; word < this.touched.length && this.size > 0; word++) {
+				long bits = this.touched[word];
+				while (bits != 0) {
+					int docid = (word << 6) + Long.numberOfTrailingZeros(bits);
+					list.add(docid, this.scores[docid]);
+					bits &= bits - 1;
+					this.size--;
+				}
+				this.touched[word] = 0;
+			}
+		} else {
+			int[] docids = Arrays.copyOf(this.docids, this.size);
+			Arrays.sort(docids);
+
+			for (int docid : docids)
+				list.add(docid, this.values[this.index.get(docid, -1)]);
+			this.index.clear();
+			this.size = 0;
+		}
+	}
+
+	private void insert(int docid, double score) {
+		if (this.size == this.docids.length) {
+			this.docids = Arrays.copyOf(this.docids, 2 * this.size);
+			this.values = Arrays.copyOf(this.values, 2 * this.size);
+		}
+		this.docids[this.size] = docid;
+		this.values[this.size] = score;
+		this.index.put(docid, this.size++);
+	}
+}
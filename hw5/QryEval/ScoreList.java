@@ -6,7 +6,6 @@
  */
 
 import java.util.*;
-import java.util.Comparator;
 
 public class ScoreList {
 
@@ -32,6 +31,10 @@ public class ScoreList {
 
   List<ScoreListEntry> scores = new ArrayList<ScoreListEntry>();
 
+  //  True if the scores are log probabilities (see IndriLogEvaluator).
+
+  boolean logSpace = false;
+
   /**
    *  Append a document score to a score list.
    *  @param docid An internal document id.
@@ -60,29 +63,4 @@ public class ScoreList {
     return this.scores.get(n).score;
   }
 
-
-  
-  public void sortResult(final HashMap<Integer, String> extIDHM) {
-      Collections.sort(scores, new Comparator<ScoreListEntry>() {
-          public int compare(ScoreListEntry sl1, ScoreListEntry sl2) {
-              if (sl1.getScore() < sl2.getScore()) {
-                  return 1;
-              } else if (sl1.getScore() == sl2.getScore()) {
-                  String extDocid1, extDocid2;
-                  extDocid1 = extIDHM.get(sl1.getDocid());
-                  extDocid2 = extIDHM.get(sl2.getDocid());
-
-                  if (extDocid1 != null && extDocid2 != null) {
-                      if (extDocid2.compareTo(extDocid1) > 0) 
-                    	  return 0;
-                      else
-                    	  return 1;
-                  }
-              }
-              return 0;
-          }
-      }
-      );
-  }
-
 }
@@ -0,0 +1,154 @@
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * TermStatsCache keeps the df and ctf of terms, so that each term's
+ * statistics are read from the terms dictionary once per run instead of
+ * once per lookup.  Feedback looks up the ctf of every stem of every
+ * feedback document, and LeToR looks up the df of the same query terms
+ * for every document, so most lookups repeat.
+ *
+ * Looked-up statistics are kept in an LruCache of at most a fixed
+ * number of bytes, keyed by field and term.  The whole vocabulary of a
+ * field can also be preloaded into a Lexicon, which answers every lookup
+ * in that field with a binary search, and gives its terms the termIds
+ * that TermVector and RelevanceFeedback use instead of strings.  Terms
+ * that are not in the index have df 0 and ctf 0.
+ */
+public class TermStatsCache extends LruCache<String, long[]> {
+
+  private static final long[] MISSING = new long[] { 0, 0 };
+
+  // The directory of lexicon files, or null
+  private final String lexiconPath;
+
+  // Preloaded fields.  Only changed before queries are evaluated.
+  private Map<String, Lexicon> lexicons = new HashMap<String, Lexicon>();
+
+  /**
+   * @param maxBytes The most memory that looked-up statistics may use,
+   *                 not counting preloaded fields.
+   * @param lexiconPath The directory of lexicon files (see Lexicon), or
+   *                    null to keep preloaded fields on the heap.
+   */
+  public TermStatsCache(long maxBytes, String lexiconPath) {
+    super(maxBytes);
+    this.lexiconPath = lexiconPath;
+  }
+
+  /**
+   * Read the statistics of every term in a field.  Call it before any
+   * query is evaluated.
+   *
+   * @param field The field.
+   * @throws IOException
+   */
+  public void preload(String field) throws IOException {
+    this.lexicons.put(field,
+                      new Lexicon(QryEval.READER, field, this.lexiconPath));
+  }
+
+  /**
+   * Returns the df of a term.
+   *
+   * @param term The term.
+   * @throws IOException
+   */
+  public int df(Term term) throws IOException {
+    Lexicon lexicon = this.lexicons.get(term.field());
+
+    if (lexicon != null) {
+      int termId = lexicon.termId(term.bytes());
+      return (termId < 0) ? 0 : lexicon.df(termId);
+    }
+    return (int) lookup(term)[0];
+  }
+
+  /**
+   * Returns the ctf of a term.
+   *
+   * @param term The term.
+   * @throws IOException
+   */
+  public long ctf(Term term) throws IOException {
+    Lexicon lexicon = this.lexicons.get(term.field());
+
+    if (lexicon != null) {
+      int termId = lexicon.termId(term.bytes());
+      return (termId < 0) ? 0 : lexicon.ctf(termId);
+    }
+    return lookup(term)[1];
+  }
+
+  /**
+   * Returns the df and ctf of a term in a field that isn't preloaded,
+   * reading both with one dictionary seek if they aren't cached.
+   */
+  private long[] lookup(Term term) throws IOException {
+    String key = term.field() + ":" + term.text();
+    long[] stats = get(key);
+
+    if (stats == null) {
+      stats = MISSING;
+
+      Terms fieldTerms = MultiFields.getTerms(QryEval.READER, term.field());
+      if (fieldTerms != null) {
+        TermsEnum te = fieldTerms.iterator(null);
+        if (te.seekExact(term.bytes(), true))
+          stats = new long[] { te.docFreq(), te.totalTermFreq() };
+      }
+      put(key, stats, 48 + 2L * key.length());
+    }
+    return stats;
+  }
+
+  /**
+   * Returns the df of a term, from QryEval.termStatsCache if there is
+   * one, otherwise from the index.
+   *
+   * @param term The term.
+   * @throws IOException
+   */
+  public static int docFreq(Term term) throws IOException {
+    if (QryEval.termStatsCache != null)
+      return QryEval.termStatsCache.df(term);
+    return QryEval.READER.docFreq(term);
+  }
+
+  /**
+   * Returns the ctf of a term, from QryEval.termStatsCache if there is
+   * one, otherwise from the index.
+   *
+   * @param term The term.
+   * @throws IOException
+   */
+  public static long totalTermFreq(Term term) throws IOException {
+    if (QryEval.termStatsCache != null)
+      return QryEval.termStatsCache.ctf(term);
+    return QryEval.READER.totalTermFreq(term);
+  }
+
+  /**
+   * Returns the preloaded lexicon of a field in QryEval.termStatsCache,
+   * or null if the field isn't preloaded.
+   *
+   * @param field The field.
+   */
+  public static Lexicon lexicon(String field) {
+    if (QryEval.termStatsCache == null)
+      return null;
+    return QryEval.termStatsCache.lexicons.get(field);
+  }
+
+  public String toString() {
+    return "Term stats cache: " + super.toString() + ", "
+      + this.lexicons.size() + " preloaded fields";
+  }
+}
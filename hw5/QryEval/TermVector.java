@@ -6,6 +6,14 @@
  *    stemsFreq:  The frequency (tf) of each entry in stems.
  *    positions:  The index of the stem that occurred at this position. 
  *
+ *  Building the positions array means decoding every position in the
+ *  field, so callers that only need some of the data open the vector
+ *  at a lower Detail level (see open).
+ *
+ *  If the field's Lexicon is preloaded (see TermStatsCache), each stem
+ *  is kept as its termId, its df and ctf are read from the lexicon, and
+ *  its string is only made when stemString asks for it.
+ *
  *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
  */
 
@@ -15,9 +23,19 @@ import org.apache.lucene.index.DocsAndPositionsEnum;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
 
 public class TermVector {
 
+  /**
+   *  How much of a term vector to read.
+   */
+  public enum Detail {
+    STATS,        // stemsLength only
+    STEMS,        // and the stems, their tfs, ctfs and dfs
+    POSITIONS     // and the stem at each position
+  }
+
   /**
    * Class variables.
    */
@@ -26,12 +44,35 @@ public class TermVector {
   String[] stems;
   int[] stemsFreq;
   Term[] terms;
+  int[] stemIds;
+  Lexicon lexicon;
 
   /**
-   *  Constructor.  Create a TermVector for a field in a document.
+   *  Constructor.  Create a TermVector for a field in a document,
+   *  with positions.
    *  @return {@link TermVector}
    */
   public TermVector(int docId, String fieldName) throws IOException {
+    this(docId, fieldName, Detail.POSITIONS);
+  }
+
+  /**
+   *  Create a TermVector for a field in a document that has only the
+   *  data of a detail level.  At STATS, only stemsLength is
+   *  available; at STEMS, everything except stemAt and
+   *  positionsLength.
+   *  @param docId The internal id of the document.
+   *  @param fieldName The field.
+   *  @param detail How much of the term vector to read.
+   *  @return {@link TermVector}
+   */
+  public static TermVector open(int docId, String fieldName, Detail detail)
+    throws IOException {
+    return new TermVector(docId, fieldName, detail);
+  }
+
+  private TermVector(int docId, String fieldName, Detail detail)
+    throws IOException {
 
     //  Fetch the term vector.
 
@@ -40,10 +81,22 @@ public class TermVector {
     //  Allocate space for stems. The 0'th stem indicates a stopword.
 
     int stemsLength = (int) this.luceneTerms.size();
+
+    if (detail == Detail.STATS) {
+      stemsFreq = new int[stemsLength + 1];
+      return;
+    }
+
     stems = new String[stemsLength + 1];
-    terms = new Term[stemsLength + 1];
     stemsFreq = new int[stemsLength + 1];
 
+    this.lexicon = TermStatsCache.lexicon(fieldName);
+    if (this.lexicon != null) {
+      stemIds = new int[stemsLength + 1];
+      stemIds[0] = -1;
+    } else
+      terms = new Term[stemsLength + 1];
+
     //  Iterate through the terms, filling in the stem and frequency
     //  information, and finding the position of the last term. The
     //  0'th term indicates a stopword, so this loop starts at i=1.
@@ -51,11 +104,27 @@ public class TermVector {
     TermsEnum ithTerm = this.luceneTerms.iterator(null);
     
     int positionsLength = 0;
+    int fromId = 0;
     for (int i = 1; ithTerm.next() != null; i++) {
-      stems[i] = ithTerm.term().utf8ToString();
-      terms[i] = new Term(fieldName, ithTerm.term().utf8ToString());
+
+      //  The stems are in byte order, like the lexicon, so each stem's
+      //  termId is after the previous stem's.
+
+      if (this.lexicon != null) {
+        stemIds[i] = this.lexicon.termId(ithTerm.term(), fromId);
+        if (stemIds[i] >= 0)
+          fromId = stemIds[i] + 1;
+        else
+          stems[i] = ithTerm.term().utf8ToString();
+      } else {
+        stems[i] = ithTerm.term().utf8ToString();
+        terms[i] = new Term(fieldName, stems[i]);
+      }
       stemsFreq[i] = (int) ithTerm.totalTermFreq();
 
+      if (detail != Detail.POSITIONS)
+        continue;
+
       //  Find the position of the last (indexed) term in the
       //  document, so that the positions array can be created and
       //  populated later. The last position for each term is the
@@ -71,6 +140,9 @@ public class TermVector {
       positionsLength = Math.max(positionsLength, ithPositions.nextPosition());
     }
 
+    if (detail != Detail.POSITIONS)
+      return;
+
     //  Create and fill the positions array. Note that the stems array
     //  uses stem 0 to indicate a stopword, so "real" stems have
     //  indexs 1 through length+1.
@@ -95,6 +167,8 @@ public class TermVector {
    *  @return The number of positionsin this field (the field length).
    */
   public int positionsLength() {
+    if (this.positions == null)
+      return 0;
     return this.positions.length;
   }
 
@@ -105,7 +179,7 @@ public class TermVector {
    *  @return Index of the stem.
    */
   public int stemAt(int i) {
-    if (i < positions.length)
+    if (positions != null && i < positions.length)
       return positions[i];
     else
       return -1;
@@ -131,10 +205,77 @@ public class TermVector {
    *  @return The stem string.
    */
   public String stemString(int i) {
-    if (i < stems.length)
-      return stems[i];
-    else
+    if (i >= stems.length)
       return null;
+    if (stems[i] == null && stemIds != null && stemIds[i] >= 0)
+      stems[i] = this.lexicon.term(stemIds[i]);
+    return stems[i];
+  }
+
+  /**
+   *  Get the termId of the i'th stem in the field's lexicon, or -1 if
+   *  the lexicon isn't preloaded or the index is invalid.
+   *  @param i Index of the stem.
+   *  @return The termId.
+   */
+  public int stemId(int i) {
+    if (stemIds != null && i < stemIds.length)
+      return stemIds[i];
+    else
+      return -1;
+  }
+
+  /**
+   *  Find a term among the stems, by binary search (the stems are in
+   *  byte order).
+   *  @param term The term.
+   *  @return Index of the stem, or 0 if the term isn't in this field.
+   */
+  public int stemIndex(String term) {
+    if (stemIds != null)
+      return stemIndex(this.lexicon.termId(term));
+
+    BytesRef key = new BytesRef(term);
+    int lo = 1;
+    int hi = stems.length - 1;
+
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      int c = new BytesRef(stems[mid]).compareTo(key);
+      if (c < 0)
+        lo = mid + 1;
+      else if (c > 0)
+        hi = mid - 1;
+      else
+        return mid;
+    }
+    return 0;
+  }
+
+  /**
+   *  Find a termId among the stems, by binary search (the termIds of
+   *  the stems increase).  Only valid if the field's lexicon is
+   *  preloaded.
+   *  @param termId The termId.
+   *  @return Index of the stem, or 0 if the term isn't in this field.
+   */
+  public int stemIndex(int termId) {
+    if (termId < 0)
+      return 0;
+
+    int lo = 1;
+    int hi = stemIds.length - 1;
+
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      if (stemIds[mid] < termId)
+        lo = mid + 1;
+      else if (stemIds[mid] > termId)
+        hi = mid - 1;
+      else
+        return mid;
+    }
+    return 0;
   }
 
   /**
@@ -142,7 +283,7 @@ public class TermVector {
    *  @return The number of unique stems in this field.
    */
   public int stemsLength() {
-    return this.stems.length;
+    return this.stemsFreq.length;
   }
   
   /**
@@ -152,7 +293,9 @@ public class TermVector {
    * @throws IOException.
    */
   public long totalStemFreq(int i) throws IOException {
-    return QryEval.READER.totalTermFreq(terms[i]);
+    if (stemIds != null)
+      return (stemIds[i] < 0) ? 0 : this.lexicon.ctf(stemIds[i]);
+    return TermStatsCache.totalTermFreq(terms[i]);
   }
   
   /**
@@ -162,7 +305,9 @@ public class TermVector {
    * @throws IOException.
    */
   public int stemDf(int i) throws IOException {
-    return QryEval.READER.docFreq(terms[i]);
+    if (stemIds != null)
+      return (stemIds[i] < 0) ? 0 : this.lexicon.df(stemIds[i]);
+    return TermStatsCache.docFreq(terms[i]);
   }
   
 }
@@ -0,0 +1,153 @@
+/**
+ *  A TopKCollector keeps the k highest-scoring documents of a query
+ *  while the scores are produced, in a min-heap of (docid, score)
+ *  entries, instead of sorting every scored document.  The final
+ *  ranking breaks ties on external id, so documents with equal scores
+ *  are ordered by the rank of their external ids (see
+ *  DocIdMap.getExternalIdRank), which is an array lookup.  The heap
+ *  never holds more than k documents, even when every document has
+ *  the same score, and external ids are looked up only for the k
+ *  documents that are returned.
+ */
+
+import java.io.*;
+import java.util.*;
+
+public class TopKCollector {
+
+	/**
+	 *  A ranked document.
+	 */
+	public static class ScoredDoc {
+		public final int docid;
+		public final double score;
+		public String externalId;
+
+		// The rank of the document's external id
+		private final int rank;
+
+		private ScoredDoc(int docid, double score, int rank) {
+			this.docid = docid;
+			this.score = score;
+			this.rank = rank;
+		}
+	}
+
+	// Orders documents from worst to best: by score, then by external id
+	// in reverse.
+	private static final Comparator<ScoredDoc> WORST_FIRST = new Comparator<ScoredDoc>() {
+		public int compare(ScoredDoc d1, ScoredDoc d2) {
+			int c = Double.compare(d1.score, d2.score);
+			if (c != 0)
+				return c;
+			return (d1.rank > d2.rank) ? -1 : ((d1.rank == d2.rank) ? 0 : 1);
+		}
+	};
+
+	private int k;
+
+	// The best k documents so far, worst at the head.
+	private PriorityQueue<ScoredDoc> heap;
+
+	public TopKCollector(int k) {
+		this.k = k;
+		this.heap = new PriorityQueue<ScoredDoc>(Math.max(1, k), WORST_FIRST);
+	}
+
+	/**
+	 *  Offer a scored document to the collector.
+	 *  @param docid The internal document id.
+	 *  @param score The document's score.
+	 */
+	public void collect(int docid, double score) {
+
+		if (this.k < 1)
+			return;
+
+		if (this.heap.size() < this.k) {
+			this.heap.add(new ScoredDoc(docid, score,
+					QryEval.getExternalIdRank(docid)));
+			return;
+		}
+
+		ScoredDoc worst = this.heap.peek();
+
+		if (score < worst.score)
+			return;
+
+		ScoredDoc d = new ScoredDoc(docid, score,
+				QryEval.getExternalIdRank(docid));
+
+		if (WORST_FIRST.compare(d, worst) > 0) {
+			this.heap.poll();
+			this.heap.add(d);
+		}
+	}
+
+	/**
+	 *  Offer every document in a score list to the collector.
+	 *  @param scoreList The scored documents.
+	 */
+	public void collect(ScoreList scoreList) {
+		for (int i = 0; i < scoreList.scores.size(); i++)
+			collect(scoreList.getDocid(i), scoreList.getDocidScore(i));
+	}
+
+	/**
+	 *  The lowest score that a document needs to enter the top k.  A
+	 *  document with a lower score can be skipped; one with this score
+	 *  enters if its external id comes first.
+	 *  @return The threshold, or negative infinity if fewer than k
+	 *          documents were collected.
+	 */
+	public double threshold() {
+		if (this.k < 1)
+			return Double.POSITIVE_INFINITY;
+		if (this.heap.size() < this.k)
+			return Double.NEGATIVE_INFINITY;
+		return this.heap.peek().score;
+	}
+
+	/**
+	 *  The top k documents, in no particular order.
+	 *  @return The documents.
+	 */
+	public ScoreList toScoreList() {
+		ScoreList scoreList = new ScoreList();
+
+		for (ScoredDoc d : this.heap)
+			scoreList.add(d.docid, d.score);
+
+		return scoreList;
+	}
+
+	/**
+	 *  Rank the top k documents by score, breaking ties on external id.
+	 *  @return At most k documents, best first, with their external ids.
+	 *  @throws IOException
+	 */
+	public ScoredDoc[] topDocs() throws IOException {
+
+		ScoredDoc[] docs = this.heap.toArray(new ScoredDoc[this.heap.size()]);
+		Arrays.sort(docs, Collections.reverseOrder(WORST_FIRST));
+
+		for (ScoredDoc d : docs)
+			d.externalId = QryEval.getExternalDocid(d.docid);
+
+		return docs;
+	}
+
+	/**
+	 *  Rank the top k documents of a score list.
+	 *  @param scoreList The scored documents.
+	 *  @param k The number of documents to return.
+	 *  @return At most k documents, best first, with their external ids.
+	 *  @throws IOException
+	 */
+	public static ScoredDoc[] topDocs(ScoreList scoreList, int k)
+			throws IOException {
+		TopKCollector collector = new TopKCollector(k);
+		collector.collect(scoreList);
+		return collector.topDocs();
+	}
+}